@@ -0,0 +1,237 @@
+import java.util.Locale;
+import java.util.function.DoubleSupplier;
+
+/*******************************************************************************************************************
+ * Builds the operations the JMH benchmarks in the benchmarks package measure.  The simulation is in the default
+ * package, which JMH cannot generate benchmarks for and which a named package cannot import, so each benchmark
+ * reaches one of these factories through benchmarks.Workloads in its setup and then only calls the Runnable or
+ * DoubleSupplier it returns.
+ *
+ * Everything runs without a display, drawing into a window-less DrawingPanel, and the flocks are placed from a
+ * fixed seed so every run measures the same flocks; -Dbench.seed=N (through the JMH jvmArgs) picks another.
+ */
+final class FlockWorkloads {
+
+    static final int SCREEN_WIDTH = 1000;
+    static final int SCREEN_HEIGHT = 700;
+
+    private static final long SEED = Long.getLong( "bench.seed", 1L );
+
+    private static DrawingPanel panel;
+
+    private FlockWorkloads() {
+    }
+
+    /*****************************************************************************************************************
+     * Gives Boid a window-less panel and the benchmark seed.  Called by every benchmark's setup before it builds
+     * anything.
+     *
+     * @throws Exception - any exception is thrown to the caller
+     */
+    static synchronized void setUp() throws Exception {
+        if ( panel == null ) {
+            panel = DrawingPanel.createOffscreen( SCREEN_WIDTH, SCREEN_HEIGHT );
+        }
+        Boid.setDrawingPanel( panel, SCREEN_WIDTH, SCREEN_HEIGHT );
+        Boid.setSeed( SEED );
+    }
+
+    /*****************************************************************************************************************
+     * Flock.move() of a flock with the default settings
+     *
+     * @param count - number of Boids
+     * @return one tick of the flock
+     * @throws Exception - any exception is thrown to the caller
+     */
+    static Runnable move( int count ) throws Exception {
+        return new Flock( "Bench", count )::move;
+    }
+
+    /*****************************************************************************************************************
+     * Flock.move() of a flock set up one of these ways:
+     * <ul>
+     * <li>grid, verlet, quadtree: 10000 Boids found by that NeighborMode</li>
+     * <li>arrays, arrays+morton: 200000 Boids in ARRAYS storage, in creation order and sorted into Morton order
+     *     every Flock.REORDER_INTERVAL ticks, in a world 20 screens across so the flock is no denser than the
+     *     others (restore the world with setUp() afterwards)</li>
+     * <li>wide, wide+barnes-hut: 5000 Boids with alignment and cohesion radii of 400, wide enough to take in
+     *     most of the flock, summed exactly and with the Barnes-Hut approximation at theta 0.5</li>
+     * <li>topological: 10000 Boids each reacting to its 7 nearest flockmates</li>
+     * </ul>
+     *
+     * @param variant - one of the names above
+     * @return one tick of the flock
+     * @throws Exception - any exception is thrown to the caller
+     */
+    static Runnable moveVariant( String variant ) throws Exception {
+        Flock f;
+        switch ( variant ) {
+            case "grid":
+            case "verlet":
+            case "quadtree":
+                f = new Flock( "Bench", 10000 );
+                f.setNeighborMode( NeighborMode.valueOf( variant.toUpperCase( Locale.ROOT ) ) );
+                break;
+            case "arrays":
+            case "arrays+morton":
+                Boid.setWorldSize( 20 * SCREEN_WIDTH, 20 * SCREEN_HEIGHT );
+                f = new Flock( "Bench", 200000 );
+                f.setStorageMode( StorageMode.ARRAYS );
+                f.setReorderInterval( variant.endsWith( "+morton" ) ? Flock.REORDER_INTERVAL : 0 );
+                break;
+            case "wide":
+            case "wide+barnes-hut":
+                f = new Flock( "Bench", 5000 );
+                f.setRadiusAlignment( 400 );
+                f.setRadiusCohesion( 400 );
+                f.setBarnesHutTheta( variant.endsWith( "+barnes-hut" ) ? 0.5 : 0.0 );
+                break;
+            case "topological":
+                f = new Flock( "Bench", 10000 );
+                f.setTopologicalNeighbors( 7 );
+                break;
+            default:
+                throw new IllegalArgumentException( "no flock variant " + variant );
+        }
+        return f::move;
+    }
+
+    /*****************************************************************************************************************
+     * Boid.evade() over a flock of 1000, moving the disruption point each time so Boids keep getting pushed
+     *
+     * @return one disruption
+     * @throws Exception - any exception is thrown to the caller
+     */
+    static Runnable evade() throws Exception {
+        Flock f = new Flock( "Bench", 1000 );
+        int[] step = { 0 };
+        return () -> {
+            int s = step[0]++;
+            f.evade( (s * 37) % SCREEN_WIDTH, (s * 53) % SCREEN_HEIGHT );
+        };
+    }
+
+    /*****************************************************************************************************************
+     * Flock.draw() followed by DrawingPanel.copyGraphicsToScreen() into the offscreen image
+     *
+     * @param count - number of Boids
+     * @return one frame
+     * @throws Exception - any exception is thrown to the caller
+     */
+    static Runnable drawAndCopy( int count ) throws Exception {
+        Flock f = new Flock( "Bench", count );
+        return () -> {
+            panel.setBackground( java.awt.Color.WHITE );
+            try {
+                f.draw();
+            } catch ( Exception e ) {
+                throw new IllegalStateException( e );
+            }
+            panel.copyGraphicsToScreen();
+        };
+    }
+
+    /*****************************************************************************************************************
+     * Vector330Class arithmetic, allocating new vectors or working in place
+     *
+     * @param inPlace - true for the in-place operations
+     * @return one subtract, normalize, scale, add, and magnitude
+     */
+    static DoubleSupplier vectorArithmetic( boolean inPlace ) {
+        Vector330Class a = new Vector330Class( 3.0, 4.0 );
+        Vector330Class b = new Vector330Class( -1.5, 2.25 );
+        Vector330Class c = new Vector330Class();
+        if ( inPlace ) {
+            return () -> {
+                a.subtractInto( b, c ).normalizeInPlace().scaleInPlace( 2.5 ).sumTo( b );
+                return c.magnitude();
+            };
+        }
+        return () -> a.subtract( b ).normalize().scale( 2.5 ).add( b ).magnitude();
+    }
+
+    /*****************************************************************************************************************
+     * One tick of neighbor search (build, then query and test every Boid) over 10000 Boids laid out one of these
+     * ways: uniform, spread over the screen; clustered, in clumps a few flocking radii across (where the grid's
+     * cells fill up with Boids that are not neighbors); packed, in clumps narrower than the flocking radius (where
+     * every Boid in a clump is a neighbor anyway, so no index can skip any)
+     *
+     * @param kind - grid or quadtree
+     * @param layout - uniform, clustered, or packed
+     * @return one search, giving the total number of neighbors found
+     */
+    static DoubleSupplier neighborSearch( String kind, String layout ) {
+        NeighborIndex index;
+        switch ( kind ) {
+            case "grid": index = new SpatialGrid(); break;
+            case "quadtree": index = new QuadTreeIndex(); break;
+            default: throw new IllegalArgumentException( "no neighbor index " + kind );
+        }
+        double clumpRadius;
+        switch ( layout ) {
+            case "uniform": clumpRadius = 0.0; break;
+            case "clustered": clumpRadius = 60.0; break;
+            case "packed": clumpRadius = 20.0; break;
+            default: throw new IllegalArgumentException( "no layout " + layout );
+        }
+        double[][] at = layout( clumpRadius, 10000 );
+        int[] cand = new int[at[0].length];
+        return () -> searchAll( index, at[0], at[1], 50.0, cand );
+    }
+
+    // private helper functions
+
+    /*****************************************************************************************************************
+     * Places Boids for the neighbor index benchmarks, from the benchmark seed
+     *
+     * @param clumpRadius radius of the eight clumps to pack them into, or 0 to spread them over the screen
+     * @param count number of Boids
+     * @return the x coordinates and the y coordinates
+     */
+    private static double[][] layout( double clumpRadius, int count ) {
+        FlockRandom rand = new FlockRandom( SEED );
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] clumpX = new double[8];
+        double[] clumpY = new double[8];
+        for( int c=0; c<clumpX.length; c++ ) {
+            clumpX[c] = clumpRadius + (SCREEN_WIDTH - 2.0 * clumpRadius) * rand.nextDouble();
+            clumpY[c] = clumpRadius + (SCREEN_HEIGHT - 2.0 * clumpRadius) * rand.nextDouble();
+        }
+        for( int i=0; i<count; i++ ) {
+            if ( clumpRadius > 0.0 ) {
+                double r = clumpRadius * Math.sqrt( rand.nextDouble() );
+                double a = 2.0 * Math.PI * rand.nextDouble();
+                x[i] = clumpX[i % clumpX.length] + r * Math.cos( a );
+                y[i] = clumpY[i % clumpY.length] + r * Math.sin( a );
+            } else {
+                x[i] = SCREEN_WIDTH * rand.nextDouble();
+                y[i] = SCREEN_HEIGHT * rand.nextDouble();
+            }
+        }
+        return new double[][] { x, y };
+    }
+
+    /*****************************************************************************************************************
+     * Builds the index and finds every Boid's neighbors within the radius, testing the candidates as Flock does
+     *
+     * @return the total number of neighbors found
+     */
+    private static double searchAll( NeighborIndex index, double[] x, double[] y, double radius, int[] cand ) {
+        int count = x.length;
+        index.build( x, y, count, radius );
+        long found = 0;
+        double r2 = radius * radius;
+        for( int i=0; i<count; i++ ) {
+            int n = index.queryNeighbors( i, radius, cand );
+            for( int c=0; c<n; c++ ) {
+                double dx = x[cand[c]] - x[i];
+                double dy = y[cand[c]] - y[i];
+                if ( dx * dx + dy * dy <= r2 ) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,100 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*******************************************************************************************************************
+ * Flock.move() at increasing flock sizes and with each of the ways the flock can be set up to step,
+ * Boid.evade(), and Flock.draw() followed by DrawingPanel.copyGraphicsToScreen() into an offscreen image
+ * (see FlockWorkloads for what each one builds).
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+public class FlockBenchmarks {
+
+    @State( Scope.Thread )
+    public static class Sized {
+        @Param( { "100", "1000", "10000", "100000" } )
+        public int count;
+
+        Runnable move;
+
+        @Setup
+        public void setUp() throws Exception {
+            Workloads.setUp();
+            move = Workloads.move( count );
+        }
+    }
+
+    @State( Scope.Thread )
+    public static class Variant {
+        @Param( { "grid", "verlet", "quadtree", "arrays", "arrays+morton", "wide", "wide+barnes-hut", "topological" } )
+        public String variant;
+
+        Runnable move;
+
+        @Setup
+        public void setUp() throws Exception {
+            Workloads.setUp();
+            move = Workloads.moveVariant( variant );
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            Workloads.setUp();      // the arrays variants step in a larger world
+        }
+    }
+
+    @State( Scope.Thread )
+    public static class Evade {
+        Runnable evade;
+
+        @Setup
+        public void setUp() throws Exception {
+            Workloads.setUp();
+            evade = Workloads.evade();
+        }
+    }
+
+    @State( Scope.Thread )
+    public static class Draw {
+        @Param( { "100", "1000", "10000" } )
+        public int count;
+
+        Runnable frame;
+
+        @Setup
+        public void setUp() throws Exception {
+            Workloads.setUp();
+            frame = Workloads.drawAndCopy( count );
+        }
+    }
+
+    @Benchmark
+    public void move( Sized s ) {
+        s.move.run();
+    }
+
+    @Benchmark
+    public void moveVariant( Variant v ) {
+        v.move.run();
+    }
+
+    @Benchmark
+    public void evade( Evade e ) {
+        e.evade.run();
+    }
+
+    @Benchmark
+    public void drawAndCopy( Draw d ) {
+        d.frame.run();
+    }
+}
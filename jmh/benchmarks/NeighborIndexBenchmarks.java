@@ -0,0 +1,41 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*******************************************************************************************************************
+ * One tick of neighbor search over 10000 Boids (build the index, then query and test every Boid) for each index
+ * and layout of the Boids (see FlockWorkloads.neighborSearch())
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@State( Scope.Thread )
+public class NeighborIndexBenchmarks {
+
+    @Param( { "grid", "quadtree" } )
+    public String index;
+
+    @Param( { "uniform", "clustered", "packed" } )
+    public String layout;
+
+    DoubleSupplier search;
+
+    @Setup
+    public void setUp() throws Exception {
+        search = Workloads.neighborSearch( index, layout );
+    }
+
+    @Benchmark
+    public void searchAll( Blackhole bh ) {
+        bh.consume( search.getAsDouble() );
+    }
+}
@@ -0,0 +1,41 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*******************************************************************************************************************
+ * Vector330Class arithmetic (subtract, normalize, scale, add, magnitude), allocating a vector per operation
+ * versus working in place
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@State( Scope.Thread )
+public class VectorBenchmarks {
+
+    DoubleSupplier allocating;
+    DoubleSupplier inPlace;
+
+    @Setup
+    public void setUp() throws Exception {
+        allocating = Workloads.vectorArithmetic( false );
+        inPlace = Workloads.vectorArithmetic( true );
+    }
+
+    @Benchmark
+    public void allocating( Blackhole bh ) {
+        bh.consume( allocating.getAsDouble() );
+    }
+
+    @Benchmark
+    public void inPlace( Blackhole bh ) {
+        bh.consume( inPlace.getAsDouble() );
+    }
+}
@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.DoubleSupplier;
+
+/*******************************************************************************************************************
+ * Typed access to the factories in FlockWorkloads, which is in the default package with the rest of the simulation
+ * and so cannot be named from here.  Every factory is looked up, with its parameter and return types, when this
+ * class is initialized, so a factory that was renamed or changed fails every benchmark at once rather than one at
+ * run time.  Only the benchmarks' setup goes through reflection; the Runnables and DoubleSuppliers the factories
+ * return are called directly.
+ */
+final class Workloads {
+
+    private static final Method SET_UP = find( void.class, "setUp" );
+    private static final Method MOVE = find( Runnable.class, "move", int.class );
+    private static final Method MOVE_VARIANT = find( Runnable.class, "moveVariant", String.class );
+    private static final Method EVADE = find( Runnable.class, "evade" );
+    private static final Method DRAW_AND_COPY = find( Runnable.class, "drawAndCopy", int.class );
+    private static final Method VECTOR_ARITHMETIC = find( DoubleSupplier.class, "vectorArithmetic", boolean.class );
+    private static final Method NEIGHBOR_SEARCH = find( DoubleSupplier.class, "neighborSearch", String.class, String.class );
+
+    private Workloads() {
+    }
+
+    /**
+     * @see FlockWorkloads#setUp()
+     */
+    static void setUp() throws Exception {
+        call( SET_UP );
+    }
+
+    /**
+     * @see FlockWorkloads#move(int)
+     */
+    static Runnable move( int count ) throws Exception {
+        return (Runnable) call( MOVE, count );
+    }
+
+    /**
+     * @see FlockWorkloads#moveVariant(String)
+     */
+    static Runnable moveVariant( String variant ) throws Exception {
+        return (Runnable) call( MOVE_VARIANT, variant );
+    }
+
+    /**
+     * @see FlockWorkloads#evade()
+     */
+    static Runnable evade() throws Exception {
+        return (Runnable) call( EVADE );
+    }
+
+    /**
+     * @see FlockWorkloads#drawAndCopy(int)
+     */
+    static Runnable drawAndCopy( int count ) throws Exception {
+        return (Runnable) call( DRAW_AND_COPY, count );
+    }
+
+    /**
+     * @see FlockWorkloads#vectorArithmetic(boolean)
+     */
+    static DoubleSupplier vectorArithmetic( boolean inPlace ) throws Exception {
+        return (DoubleSupplier) call( VECTOR_ARITHMETIC, inPlace );
+    }
+
+    /**
+     * @see FlockWorkloads#neighborSearch(String, String)
+     */
+    static DoubleSupplier neighborSearch( String kind, String layout ) throws Exception {
+        return (DoubleSupplier) call( NEIGHBOR_SEARCH, kind, layout );
+    }
+
+    // private helper functions
+
+    /**
+     * Looks up a FlockWorkloads factory, failing the initialization of this class if there is none with these
+     * parameter types returning this type
+     */
+    private static Method find( Class<?> returns, String name, Class<?>... parameters ) {
+        try {
+            Method m = Class.forName( "FlockWorkloads" ).getDeclaredMethod( name, parameters );
+            if ( m.getReturnType() != returns ) {
+                throw new NoSuchMethodException( "FlockWorkloads." + name + " does not return " + returns.getName() );
+            }
+            m.setAccessible( true );
+            return m;
+        } catch ( ReflectiveOperationException e ) {
+            throw new ExceptionInInitializerError( e );
+        }
+    }
+
+    private static Object call( Method factory, Object... args ) throws Exception {
+        try {
+            return factory.invoke( null, args );
+        } catch ( InvocationTargetException e ) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+    }
+}
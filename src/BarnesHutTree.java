@@ -0,0 +1,192 @@
+/*******************************************************************************************
+ * BarnesHutTree approximates the alignment and cohesion sums of a Flock whose radii reach
+ * across much of the flock, where every Boid has nearly every other Boid as a neighbor and
+ * an exact search is O(N^2).  It is a QuadTreeIndex whose nodes also hold the number of
+ * Boids under them and the sums of their locations and velocities.
+ *
+ * gather() walks the tree from the root.  A node entirely outside the radius is skipped and
+ * a node entirely inside it is added whole, both exactly.  A node the edge of the radius
+ * cuts through is opened, unless it is small compared to its distance: with d the distance
+ * to the node's centroid and s the node's diagonal, a node with s < theta * d counts as a
+ * single aggregate, inside the radius when its centroid is.  Leaves are tested a Boid at a
+ * time.  Only Boids at a distance within theta times the radius of the edge of the radius
+ * can be counted wrongly, so the error is bounded by theta and is zero for theta 0.  Each
+ * Boid then costs about a tree depth plus 1/theta nodes rather than a scan of its
+ * neighbors, so the sums for the whole flock take O(N log N).
+ *
+ * The node sums are built bottom up after the tree (children come after their parent in
+ * the node arrays).  Like the index queries, gather() only reads the tree.
+ */
+class BarnesHutTree extends QuadTreeIndex {
+
+    /**
+     * Sums holds the totals gather() adds into, one per thread
+     */
+    static final class Sums {
+        int count;
+        double x, y;            // locations, as the nearest images for a wrapping Boid
+        double vx, vy;          // velocities
+
+        void clear() {
+            count = 0;
+            x = y = vx = vy = 0.0;
+        }
+    }
+
+    private double[] vx;
+    private double[] vy;
+    private double[] sumX = new double[0];
+    private double[] sumY = new double[0];
+    private double[] sumVX = new double[0];
+    private double[] sumVY = new double[0];
+
+    /*****************************************************************************************
+     * Builds the tree and the node sums over the given Boids
+     *
+     * @param x - x coordinates of the Boids
+     * @param y - y coordinates of the Boids
+     * @param vx - x velocities of the Boids
+     * @param vy - y velocities of the Boids
+     * @param count - number of valid entries in the arrays
+     */
+    void build( double[] x, double[] y, double[] vx, double[] vy, int count ) {
+        build( x, y, count, 0.0 );
+        this.vx = vx;
+        this.vy = vy;
+        if ( sumX.length < nodes ) {
+            int size = nodeStart.length;
+            sumX = new double[size];
+            sumY = new double[size];
+            sumVX = new double[size];
+            sumVY = new double[size];
+        }
+        for( int n=nodes - 1; n>=0; n-- ) {
+            double sx = 0.0, sy = 0.0, svx = 0.0, svy = 0.0;
+            int child = nodeChild[n];
+            if ( child >= 0 ) {
+                for( int c=child; c<child + 4; c++ ) {
+                    sx += sumX[c];
+                    sy += sumY[c];
+                    svx += sumVX[c];
+                    svy += sumVY[c];
+                }
+            } else {
+                for( int k=nodeStart[n]; k<nodeEnd[n]; k++ ) {
+                    int i = items[k];
+                    sx += itemX[k];
+                    sy += itemY[k];
+                    svx += vx[i];
+                    svy += vy[i];
+                }
+            }
+            sumX[n] = sx;
+            sumY[n] = sy;
+            sumVX[n] = svx;
+            sumVY[n] = svy;
+        }
+    }
+
+    /*****************************************************************************************
+     * Adds the number, locations, and velocities of the Boids within a radius of a point to
+     * sums, approximating as described in the class comment
+     *
+     * @param px - x coordinate of the point
+     * @param py - y coordinate of the point
+     * @param radius - the radius; Boids at exactly this distance are not counted
+     * @param wrap - true to measure to the nearest images across the edges of a periodic tree
+     *               and add those images' locations, as a wrapping Boid sees its neighbors
+     * @param theta - opening angle, 0 for exact sums
+     * @param sums - where to add the totals
+     */
+    void gather( double px, double py, double radius, boolean wrap, double theta, Sums sums ) {
+        if ( count > 0 ) {
+            gather( 0, px, py, radius * radius, wrap && periodX > 0.0, theta, sums );
+        }
+    }
+
+    // private helper functions
+
+    private void gather( int node, double px, double py, double r2, boolean wrap, double theta, Sums sums ) {
+        int n = nodeEnd[node] - nodeStart[node];
+        if ( n == 0 ) {
+            return;
+        }
+
+        // for a wrapping Boid, move the node to its image nearest the point
+
+        double shiftX = 0.0;
+        double shiftY = 0.0;
+        if ( wrap ) {
+            shiftX = -periodX * Math.rint( (0.5 * (nodeX0[node] + nodeX1[node]) - px) / periodX );
+            shiftY = -periodY * Math.rint( (0.5 * (nodeY0[node] + nodeY1[node]) - py) / periodY );
+        }
+        double x0 = nodeX0[node] + shiftX;
+        double y0 = nodeY0[node] + shiftY;
+        double x1 = nodeX1[node] + shiftX;
+        double y1 = nodeY1[node] + shiftY;
+
+        double nx = Math.max( 0.0, Math.max( x0 - px, px - x1 ) );
+        double ny = Math.max( 0.0, Math.max( y0 - py, py - y1 ) );
+        if ( nx * nx + ny * ny >= r2 ) {
+            return;
+        }
+
+        // the whole node is inside, and (for a wrapping Boid) within half a period, so this image
+        // of every Boid in it is the nearest one
+
+        double fx = Math.max( px - x0, x1 - px );
+        double fy = Math.max( py - y0, y1 - py );
+        if ( fx * fx + fy * fy < r2 && (!wrap || (2.0 * fx <= periodX && 2.0 * fy <= periodY)) ) {
+            add( node, n, shiftX, shiftY, sums );
+            return;
+        }
+
+        int child = nodeChild[node];
+        if ( child < 0 ) {
+            for( int k=nodeStart[node]; k<nodeEnd[node]; k++ ) {
+                double dx = px - itemX[k];
+                double dy = py - itemY[k];
+                if ( wrap ) {
+                    dx -= periodX * Math.rint( dx / periodX );
+                    dy -= periodY * Math.rint( dy / periodY );
+                }
+                if ( dx * dx + dy * dy < r2 ) {
+                    int i = items[k];
+                    sums.count++;
+                    sums.x += px - dx;
+                    sums.y += py - dy;
+                    sums.vx += vx[i];
+                    sums.vy += vy[i];
+                }
+            }
+            return;
+        }
+
+        // a node far enough away for its size counts as one aggregate at its centroid
+
+        if ( theta > 0.0 ) {
+            double cx = sumX[node] / n + shiftX - px;
+            double cy = sumY[node] / n + shiftY - py;
+            double d2 = cx * cx + cy * cy;
+            double sx = x1 - x0;
+            double sy = y1 - y0;
+            if ( sx * sx + sy * sy < theta * theta * d2 ) {
+                if ( d2 < r2 ) {
+                    add( node, n, shiftX, shiftY, sums );
+                }
+                return;
+            }
+        }
+        for( int c=child; c<child + 4; c++ ) {
+            gather( c, px, py, r2, wrap, theta, sums );
+        }
+    }
+
+    private void add( int node, int n, double shiftX, double shiftY, Sums sums ) {
+        sums.count += n;
+        sums.x += sumX[node] + n * shiftX;
+        sums.y += sumY[node] + n * shiftY;
+        sums.vx += sumVX[node];
+        sums.vy += sumVY[node];
+    }
+}
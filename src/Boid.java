@@ -1,6 +1,6 @@
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.util.Random;
 
 /**************************************************************
  * Boid class provides the single entity level for members of
@@ -24,24 +24,24 @@ class Boid {
     // static attributes
 
     private static DrawingPanel panel = null;
-    private static Graphics2D g = null;
     private static int screenWidth = 0;     // note, this is the width of the entire frame including borders
     private static int screenHeight = 0;    // and this is the height of the entire frame including borders and title
-    private static Random rand = new Random( System.currentTimeMillis());
+    private static FlockRandom rand = new FlockRandom( System.currentTimeMillis());   // flocks split theirs from this
 
     // constructors
 
     /****************************************************************************************************************
-     * Base zero-argument constructor that creates the Boid with a random location and a random 360 deg velocity
+     * Base constructor that creates the Boid with a random location and a random 360 deg velocity
      *
-     * @throws Exception Throws and exception if the DrawingPanel has not yet been set
+     * @param rand generator to place the Boid with (its flock's, see FlockRandom)
+     * @throws Exception Throws and exception if neither the DrawingPanel nor the world size has been set
      */
-    Boid() throws Exception {
+    Boid( FlockRandom rand ) throws Exception {
 
-        // make sure the Boid class knows about the encompassing DrawingPanel
+        // make sure the Boid class knows the size of the world it lives in
 
-        if (panel == null) {
-            throw new Exception("Boid Class Error: Must set static DrawingPanel attribute before creating Boids");
+        if (screenWidth <= 0 || screenHeight <= 0) {
+            throw new Exception("Boid Class Error: Must set static DrawingPanel attribute (or the world size) before creating Boids");
         } else {
 
             // set a random position vector based upon window size
@@ -57,6 +57,28 @@ class Boid {
         }
     }
 
+    /****************************************************************************************************************
+     * Restore constructor that creates the Boid exactly as it was saved in a Checkpoint, without drawing on the
+     * random number generator
+     *
+     * @param x x coordinate of the location
+     * @param y y coordinate of the location
+     * @param vx x component of the velocity
+     * @param vy y component of the velocity
+     * @param speed the Boid's speed
+     * @param size the Boid's size
+     * @param color the Boid's color
+     * @param movement how the Boid moves at the edges of the world
+     */
+    Boid( double x, double y, double vx, double vy, double speed, int size, Color color, MoveMode movement ) {
+        this.location = new Vector330Class( x, y );
+        this.velocity = new Vector330Class( vx, vy );
+        this.speed = speed;
+        this.size = size;
+        this.color = color;
+        this.movement = movement;
+    }
+
     // setters
 
     /*************************************************************************
@@ -78,11 +100,24 @@ class Boid {
     }
 
     /************************************************************************
-     * Sets the new velocity vector based upon the one provided (via alias)
+     * Sets the new velocity vector based upon the one provided (by copying
+     * it, so the caller may reuse nv)
      * @param nv new velocity vector passed in
      */
     void setNewVelocity( Vector330Class nv ) {
-        this.newVelocity = nv;
+        setNewVelocity( nv.getX(), nv.getY() );
+    }
+
+    /************************************************************************
+     * Sets the new velocity vector from its components
+     * @param x x component of the new velocity
+     * @param y y component of the new velocity
+     */
+    void setNewVelocity( double x, double y ) {
+        if ( this.newVelocity == null ) {
+            this.newVelocity = new Vector330Class();
+        }
+        this.newVelocity.set( x, y );
     }
 
     /***********************************************************************
@@ -142,10 +177,28 @@ class Boid {
         return this.velocity;
     }
     double getSpeed() { return this.speed; }
+    int getSize() { return this.size; }
+    Color getColor() { return this.color; }
+    BufferedImage getImage() { return this.image; }
     MoveMode getMovementMode() {
         return movement;
     }
 
+    // static getters
+
+    static int getScreenWidth() { return screenWidth; }
+    static int getScreenHeight() { return screenHeight; }
+    static synchronized FlockRandom getRandom() { return rand; }
+
+    /******************************************************************************************************
+     * Splits a generator for a new flock off the one every flock's generator comes from, so a seed (see
+     * setSeed()) fixes the Boids of every flock created after it, in order
+     * @return a generator for the flock's exclusive use
+     */
+    static synchronized FlockRandom splitRandom() {
+        return rand.split();
+    }
+
     // static setters
 
     /******************************************************************************************************
@@ -160,12 +213,43 @@ class Boid {
             throw new IllegalAccessException("Boid DrawingPanel cannot be null");
         } else {
             Boid.panel = panel;
-            g = panel.getGraphics();
             screenWidth = width;
             screenHeight = height;
         }
     }
 
+    /******************************************************************************************************
+     * Sets the size of the world the Boids live in without a DrawingPanel, for running the simulation
+     * headless; Boids can then be created and moved but not drawn
+     * @param width width of the world
+     * @param height height of the world
+     * @throws IllegalArgumentException throws exception if either dimension is not positive
+     */
+    static void setWorldSize( int width, int height ) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Boid world size must be positive");
+        }
+        screenWidth = width;
+        screenHeight = height;
+    }
+
+    /******************************************************************************************************
+     * Seeds the generator flocks split theirs from (see splitRandom()); by default it is seeded from the clock,
+     * so every run is different
+     * @param seed the seed
+     */
+    static void setSeed( long seed ) {
+        setRandom( new FlockRandom( seed ) );
+    }
+
+    /******************************************************************************************************
+     * Replaces the generator flocks split theirs from, e.g. by one restored from a Checkpoint
+     * @param rand the new generator
+     */
+    static synchronized void setRandom( FlockRandom rand ) {
+        Boid.rand = rand;
+    }
+
     // other public methods
 
     /*****************************************************************************
@@ -213,23 +297,25 @@ class Boid {
      * @param x x coordinate of the disruption point
      * @param y y coordinate of the disruption point
      * @param evadeRadius distance used to detect if evasion is needed and to determine how far away to move
+     * @return true if the Boid was close enough to move
      */
-    void evade( int x, int y, int evadeRadius ) {
-
-        // create a vector for the disruption location
+    boolean evade( int x, int y, int evadeRadius ) {
 
-        Vector330Class disruptionLocationVector = new Vector330Class( x, y );
+        VectorScratch scratch = VectorScratch.current();
+        int mark = scratch.mark();
 
-        // move directly away from the disruption point
+        // create a vector for the disruption location and move directly away from it
 
-        Vector330Class evadeVector = this.getLocation().subtract( disruptionLocationVector);
+        Vector330Class evadeVector = scratch.take().set( x, y );
+        this.getLocation().subtractInto( evadeVector, evadeVector );
 
         // if this Boid is within the evadeRadius of the disruption, have it move directly away from the disruption
         // so that it is the evadeRadius away from the disruption.
 
-        if ( evadeVector.magnitude() < evadeRadius ) {
+        boolean moved = evadeVector.magnitude() < evadeRadius;
+        if ( moved ) {
             double distanceToDisruption = evadeVector.magnitude();
-            this.setLocation( this.getLocation().add( evadeVector.normalize().scale(evadeRadius-distanceToDisruption)));
+            this.getLocation().sumTo( evadeVector.normalizeInPlace().scaleInPlace(evadeRadius-distanceToDisruption));
 
             // don't let the boid get scared off of the screen
 
@@ -239,6 +325,8 @@ class Boid {
             if (this.getLocation().getY() > Boid.screenHeight) this.getLocation().setY(Boid.screenHeight-1);
 
         }
+        scratch.release( mark );
+        return moved;
     }
 
     /***********************************************************************************************************
@@ -249,27 +337,61 @@ class Boid {
 
         // make sure we have a place (Graphics2D object) to draw on
 
-        if (g == null) {
+        if (panel == null) {
             throw new Exception("ERROR: Boid draw() does not have a DrawingPanel set.");
         } else {
+            draw( panel.getGraphics(), this.location.getX(), this.location.getY(), this.velocity.getX(), this.velocity.getY(),
+                  size, color, image );
+        }
+    }
 
-            // if there is no image to draw, use a circle based upon the size and color attributes
+    /***********************************************************************************************************
+     * Draws a Boid with the given state; used both by draw() and to draw Boids from a WorldSnapshot
+     * @param g where to draw
+     * @param x x coordinate of the Boid's location
+     * @param y y coordinate of the Boid's location
+     * @param vx x component of the Boid's velocity
+     * @param vy y component of the Boid's velocity
+     * @param size size of the Boid
+     * @param color color of the Boid
+     * @param image image of the Boid, or null to draw a circle
+     */
+    static void draw( Graphics2D g, double x, double y, double vx, double vy, int size, Color color,
+                      BufferedImage image ) {
 
-            if (image == null) {
-                g.setColor( color );
-                g.fillOval( (int) this.location.getX() - (size/2),
-                            (int) this.location.getY() - (size/2), size, size );
+        // usually a single copy from the pre-rendered sprites; only Boids too large to cache are drawn here
 
-                // use the velocity to provide a heading for the Boid
+        if ( SpriteCache.draw( g, x, y, vx, vy, size, color, image ) ) {
+            return;
+        }
 
-                Vector330Class point = this.velocity.normalize().scale( size ).add( this.location );
-                g.drawLine( this.location.getXint(), this.location.getYint(),
-                            point.getXint(), point.getYint() );
+        // if there is no image to draw, use a circle based upon the size and color attributes
 
-            } else {
-                // TBD: Add code to draw an image
-            }
+        if (image == null) {
+            g.setColor( color );
+            g.fillOval( (int) x - (size/2), (int) y - (size/2), size, size );
+
+            // use the velocity to provide a heading for the Boid
+
+            VectorScratch scratch = VectorScratch.current();
+            int mark = scratch.mark();
+            Vector330Class location = scratch.take().set( x, y );
+            Vector330Class point = scratch.take().set( vx, vy ).normalizeInPlace().scaleInPlace( size );
+            point.sumTo( location );
+            g.drawLine( location.getXint(), location.getYint(),
+                        point.getXint(), point.getYint() );
+            scratch.release( mark );
+
+        } else {
+
+            // draw the image size x size, centered on the location and rotated to the heading
 
+            AffineTransform t = new AffineTransform();
+            t.translate( x, y );
+            t.rotate( Math.atan2( vy, vx ) );
+            t.translate( -size / 2.0, -size / 2.0 );
+            t.scale( (double) size / image.getWidth(), (double) size / image.getHeight() );
+            g.drawImage( image, t, null );
         }
     }
-}
\ No newline at end of file
+}
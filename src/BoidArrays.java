@@ -0,0 +1,303 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*******************************************************************************************
+ * BoidArrays is the structure-of-arrays form of a flock's motion state.  Locations,
+ * velocities, and next velocities are kept in parallel primitive arrays, so the per-tick
+ * loops walk contiguous memory instead of chasing a Boid and three Vector330Class objects
+ * per neighbor.
+ *
+ * Each slot of the arrays holds one Boid, and boid[] says which: its index in the Flock's
+ * Boid list, which is what identifies it to everything outside the step (drawing, editing,
+ * snapshots, recordings, checkpoints).  The slots start in list order; sortByMorton() puts
+ * them in Z-order of location instead, so Boids near each other in the world are near each
+ * other in the arrays and a neighbor loop touches mostly contiguous memory.  The order is
+ * kept until the next sort, through loads after edits, as long as the count is unchanged.
+ */
+class BoidArrays {
+
+    int count = 0;
+
+    double[] x = new double[0];
+    double[] y = new double[0];
+    double[] vx = new double[0];
+    double[] vy = new double[0];
+    double[] nvx = new double[0];   // next velocity, built from the current velocities of the others
+    double[] nvy = new double[0];
+    double[] speed = new double[0];
+    int[] size = new int[0];
+    boolean[] wrap = new boolean[0];
+    double[] steerX = new double[0];  // steering toward or away from other flocks (see FlockInteractions)
+    double[] steerY = new double[0];
+    double[] reach = new double[0]; // distance to the k-th nearest neighbor last tick in topological mode, 0 if unknown
+    boolean anyWrap = false;        // some Boid wraps, so neighbor searches must see across the edges
+    int[] boid = new int[0];        // index in the Flock's Boid list of the Boid in each slot
+    private int ordered = 0;        // number of Boids the order in boid[] is for, 0 for list order
+
+    // sortByMorton() work arrays, kept so a sort allocates nothing once they have grown
+    private int[] keys = new int[0];
+    private int[] sortKeys = new int[0];
+    private int[] source = new int[0];
+    private int[] sortSource = new int[0];
+    private int[] digits = new int[257];
+    private double[] swapD = new double[0];
+    private int[] swapI = new int[0];
+
+    /************************************************************************
+     * Grows the arrays (discarding their contents, apart from the slot order)
+     * so they hold n Boids
+     * @param n number of Boids to hold
+     */
+    void ensureCapacity( int n ) {
+        if ( x.length < n ) {
+            x = new double[n];
+            y = new double[n];
+            vx = new double[n];
+            vy = new double[n];
+            nvx = new double[n];
+            nvy = new double[n];
+            speed = new double[n];
+            size = new int[n];
+            wrap = new boolean[n];
+            steerX = new double[n];
+            steerY = new double[n];
+            reach = Arrays.copyOf( reach, n );  // only a hint, so kept like the order
+            boid = Arrays.copyOf( boid, n );   // the slot order outlives a load
+        }
+    }
+
+    /************************************************************************
+     * Copies the motion state of each Boid into the arrays
+     * @param boids Boids to copy from
+     * @param keepOrder true to keep the slot order of the last sort (if the
+     *                  number of Boids is the same), false for list order
+     */
+    void load( ArrayList<Boid> boids, boolean keepOrder ) {
+        count = boids.size();
+        ensureCapacity( count );
+        if ( !keepOrder || ordered != count ) {
+            for( int i=0; i<count; i++ ) {
+                boid[i] = i;
+            }
+            ordered = 0;
+        }
+        anyWrap = false;
+        for( int i=0; i<count; i++ ) {
+            Boid b = boids.get( boid[i] );
+            x[i] = b.getLocation().getX();
+            y[i] = b.getLocation().getY();
+            vx[i] = b.getVelocity().getX();
+            vy[i] = b.getVelocity().getY();
+            speed[i] = b.getSpeed();
+            size[i] = b.getSize();
+            wrap[i] = b.getMovementMode() == MoveMode.WRAP;
+            anyWrap |= wrap[i];
+        }
+    }
+
+    /************************************************************************
+     * Copies the locations and velocities in the arrays back into the Boids
+     * @param boids Boids to copy into
+     */
+    void store( ArrayList<Boid> boids ) {
+        for( int i=0; i<count; i++ ) {
+            Boid b = boids.get( boid[i] );
+            b.getLocation().setX( x[i] );
+            b.getLocation().setY( y[i] );
+            b.getVelocity().setX( vx[i] );
+            b.getVelocity().setY( vy[i] );
+        }
+    }
+
+    /************************************************************************
+     * The slot order the next load() keeps, in the form of boid[]: the list
+     * index of the Boid in each slot, or null for list order
+     * @return a copy of the order
+     */
+    int[] getOrder() {
+        return (ordered == 0) ? null : Arrays.copyOf( boid, ordered );
+    }
+
+    /************************************************************************
+     * Sets the slot order the next load() keeps, as saved by getOrder()
+     * @param order the list index of the Boid in each slot, a permutation
+     *              of 0 .. order.length-1, or null for list order
+     */
+    void setOrder( int[] order ) {
+        if ( order == null ) {
+            ordered = 0;
+            return;
+        }
+        ensureCapacity( order.length );
+        System.arraycopy( order, 0, boid, 0, order.length );
+        ordered = order.length;
+    }
+
+    /*****************************************************************************
+     * Sorts the slots into Z-order (Morton order) of the Boids' locations: each
+     * location is quantized to 16 bits per coordinate across the world and the
+     * bits of the two interleaved into a 32-bit key, which a least significant
+     * digit radix sort orders in four O(N) passes of a byte each.  Boids with
+     * equal keys keep their order, so the same state always sorts the same way.
+     * Only the state that lasts from tick to tick is moved (with the topological
+     * search hints); the next velocities and the steering are recomputed every
+     * step.
+     *
+     * @param width width of the world
+     * @param height height of the world
+     */
+    void sortByMorton( int width, int height ) {
+        if ( keys.length < count ) {
+            keys = new int[count];
+            sortKeys = new int[count];
+            source = new int[count];
+            sortSource = new int[count];
+            swapD = new double[count];
+            swapI = new int[count];
+        }
+        double sx = 65536.0 / Math.max( 1, width );
+        double sy = 65536.0 / Math.max( 1, height );
+        for( int i=0; i<count; i++ ) {
+            int qx = (int) Math.max( 0.0, Math.min( 65535.0, x[i] * sx ) );
+            int qy = (int) Math.max( 0.0, Math.min( 65535.0, y[i] * sy ) );
+            keys[i] = spread( qx ) | (spread( qy ) << 1);
+            source[i] = i;
+        }
+
+        // sort (key, slot) pairs a byte of the key at a time, back and forth between the two sets of arrays
+
+        int[] k0 = keys, k1 = sortKeys;
+        int[] f0 = source, f1 = sortSource;
+        for( int shift=0; shift<32; shift+=8 ) {
+            Arrays.fill( digits, 0 );
+            for( int i=0; i<count; i++ ) {
+                digits[((k0[i] >>> shift) & 0xFF) + 1]++;
+            }
+            if ( count == 0 || digits[((k0[0] >>> shift) & 0xFF) + 1] == count ) {
+                continue;       // every key has the same byte here
+            }
+            for( int d=0; d<256; d++ ) {
+                digits[d + 1] += digits[d];
+            }
+            for( int i=0; i<count; i++ ) {
+                int p = digits[(k0[i] >>> shift) & 0xFF]++;
+                k1[p] = k0[i];
+                f1[p] = f0[i];
+            }
+            int[] t = k0; k0 = k1; k1 = t;
+            t = f0; f0 = f1; f1 = t;
+        }
+
+        // f0[p] is now the slot the Boid for slot p comes from
+
+        permute( x, f0 );
+        permute( y, f0 );
+        permute( vx, f0 );
+        permute( vy, f0 );
+        permute( speed, f0 );
+        permute( size, f0 );
+        permute( reach, f0 );
+        permute( boid, f0 );
+        for( int p=0; p<count; p++ ) {
+            swapI[p] = wrap[f0[p]] ? 1 : 0;
+        }
+        for( int p=0; p<count; p++ ) {
+            wrap[p] = (swapI[p] != 0);
+        }
+        ordered = count;
+    }
+
+    /*****************************************************************************
+     * Makes the next velocity current and moves Boids [from, to) by it, with the
+     * same wrapping and bouncing behavior as Boid.move()
+     *
+     * @param from first Boid to move
+     * @param to one past the last Boid to move
+     * @param width width of the world
+     * @param height height of the world
+     */
+    void integrate( int from, int to, int width, int height ) {
+        for( int i=from; i<to; i++ ) {
+            vx[i] = nvx[i];
+            vy[i] = nvy[i];
+            x[i] += vx[i];
+            y[i] += vy[i];
+
+            if ( wrap[i] ) {
+                if ( x[i] < 0.0 ) x[i] = width;
+                if ( x[i] > width ) x[i] = 0.0;
+                if ( y[i] < 0.0 ) y[i] = height;
+                if ( y[i] > height ) y[i] = 0.0;
+            } else {
+                double half = size[i] / 2.0;
+                if ( (x[i] < half) || (x[i] > (double) width - half) ) vx[i] = -1.0 * vx[i];
+                if ( (y[i] < half) || (y[i] > (double) height - half) ) vy[i] = -1.0 * vy[i];
+            }
+        }
+    }
+
+    /*****************************************************************************
+     * Moves Boid i directly away from a disruption point, with the same vector
+     * arithmetic (so the same result) as Boid.evade()
+     *
+     * @param i Boid to move
+     * @param px x coordinate of the disruption point
+     * @param py y coordinate of the disruption point
+     * @param evadeRadius distance used to detect if evasion is needed and to determine how far away to move
+     * @param width width of the world
+     * @param height height of the world
+     * @return true if the Boid was close enough to move
+     */
+    boolean evade( int i, int px, int py, int evadeRadius, int width, int height ) {
+        VectorScratch scratch = VectorScratch.current();
+        int mark = scratch.mark();
+        Vector330Class location = scratch.take().set( x[i], y[i] );
+        Vector330Class evadeVector = scratch.take().set( px, py );
+        location.subtractInto( evadeVector, evadeVector );
+
+        boolean moved = evadeVector.magnitude() < evadeRadius;
+        if ( moved ) {
+            double distanceToDisruption = evadeVector.magnitude();
+            location.sumTo( evadeVector.normalizeInPlace().scaleInPlace( evadeRadius - distanceToDisruption ) );
+            x[i] = location.getX();
+            y[i] = location.getY();
+
+            // don't let the boid get scared off of the screen
+
+            if ( x[i] < 0 ) x[i] = 0;
+            if ( x[i] > width ) x[i] = width - 1;
+            if ( y[i] < 0 ) y[i] = 0;
+            if ( y[i] > height ) y[i] = height - 1;
+        }
+        scratch.release( mark );
+        return moved;
+    }
+
+    // private helper functions
+
+    private void permute( double[] a, int[] from ) {
+        for( int p=0; p<count; p++ ) {
+            swapD[p] = a[from[p]];
+        }
+        System.arraycopy( swapD, 0, a, 0, count );
+    }
+
+    private void permute( int[] a, int[] from ) {
+        for( int p=0; p<count; p++ ) {
+            swapI[p] = a[from[p]];
+        }
+        System.arraycopy( swapI, 0, a, 0, count );
+    }
+
+    /**
+     * Spreads the low 16 bits of v out to the even bits of the result, for interleaving
+     */
+    private static int spread( int v ) {
+        v &= 0xFFFF;
+        v = (v | (v << 8)) & 0x00FF00FF;
+        v = (v | (v << 4)) & 0x0F0F0F0F;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+}
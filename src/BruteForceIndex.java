@@ -0,0 +1,31 @@
+/*******************************************************************************************
+ * BruteForceIndex is the reference NeighborIndex: every Boid is a candidate neighbor of
+ * every other Boid, which gives the original O(N^2) flocking behavior.
+ */
+class BruteForceIndex implements NeighborIndex {
+
+    private int count = 0;
+
+    @Override
+    public void build( double[] x, double[] y, int count, double cellSize ) {
+        this.count = count;
+    }
+
+    @Override
+    public void setPeriod( double width, double height ) {
+        // every Boid is already a candidate
+    }
+
+    @Override
+    public int queryNeighbors( int index, double radius, int[] result ) {
+        for( int i=0; i<count; i++ ) {
+            result[i] = i;
+        }
+        return count;
+    }
+
+    @Override
+    public int queryPoint( double px, double py, double radius, int[] result ) {
+        return queryNeighbors( 0, radius, result );
+    }
+}
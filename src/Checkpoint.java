@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*******************************************************************************************************************
+ * Checkpoint saves the whole state of a FlockWorld to a file and restores it, so a long run can be stopped and
+ * resumed, or a world reset to an earlier moment, without starting over.
+ *
+ * A checkpoint holds the tick, the generator new flocks draw their random numbers from, the interaction rules,
+ * any disruptions queued for the next step, and every Flock (name, radii, weights, modes) with every Boid's
+ * location, velocity, speed, size, color, and movement mode and the order the flock stores its Boids in.  The
+ * images Boids are drawn with are not saved; restored Boids are drawn as circles of their color.  A world
+ * restored from a checkpoint steps exactly as the saved world would have.
+ *
+ * The file is compact little-endian binary written and read through one reusable buffer, with the Boids of each
+ * flock stored an attribute at a time so they go through the buffer as bulk copies of arrays:
+ * <pre>
+ *   header  long MAGIC, int VERSION, int world width, int world height
+ *   world   see FlockWorld.save()
+ * </pre>
+ * Strings are an int length and then that many bytes of UTF-8.
+ */
+class Checkpoint {
+
+    static final long MAGIC = 0x504B434B434F4C46L;       // "FLOCKCKP" read as a little-endian long
+    static final int VERSION = 5;
+
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private Checkpoint() {
+    }
+
+    /*****************************************************************************************************************
+     * Saves the world into a file, replacing it.  Call between steps, on the thread stepping the world.
+     *
+     * @param world the world to save
+     * @param file where to save it
+     * @throws IOException if the file cannot be written
+     */
+    static void save( FlockWorld world, Path file ) throws IOException {
+        try (Output out = new Output( file )) {
+            out.putLong( MAGIC ).putInt( VERSION ).putInt( world.getWidth() ).putInt( world.getHeight() );
+            world.save( out );
+        }
+    }
+
+    /*****************************************************************************************************************
+     * Restores a world saved by save(), replacing the world's flocks and the rest of its state.  Call between steps,
+     * on the thread stepping the world.  The world is unchanged if the file cannot be read.
+     *
+     * @param world the world to restore into; it must be the size of the saved world
+     * @param file the checkpoint to restore
+     * @throws IOException if the file cannot be read, is not a checkpoint, or is of a world of another size
+     */
+    static void restore( FlockWorld world, Path file ) throws IOException {
+        try (Input in = new Input( file )) {
+            if ( in.getLong() != MAGIC ) {
+                throw new IOException( "not a checkpoint file: " + file );
+            }
+            int version = in.getInt();
+            if ( version != VERSION ) {
+                throw new IOException( "unsupported checkpoint version " + version + ": " + file );
+            }
+            int width = in.getInt();
+            int height = in.getInt();
+            if ( width != world.getWidth() || height != world.getHeight() ) {
+                throw new IOException( "checkpoint of a " + width + "x" + height + " world cannot be restored into a " +
+                                       world.getWidth() + "x" + world.getHeight() + " world" );
+            }
+            world.restore( in );
+        }
+    }
+
+    /**
+     * Output writes a checkpoint through a buffer it flushes into the file as it fills
+     */
+    static final class Output implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+
+        Output( Path file ) throws IOException {
+            channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                        StandardOpenOption.WRITE );
+        }
+
+        Output putInt( int v ) throws IOException { room( 4 ); buffer.putInt( v ); return this; }
+        Output putLong( long v ) throws IOException { room( 8 ); buffer.putLong( v ); return this; }
+        Output putDouble( double v ) throws IOException { room( 8 ); buffer.putDouble( v ); return this; }
+
+        Output putString( String s ) throws IOException {
+            return putBytes( s.getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        Output putBytes( byte[] b ) throws IOException {
+            putInt( b.length );
+            for( int i=0; i<b.length; ) {
+                room( 1 );
+                int n = Math.min( b.length - i, buffer.remaining() );
+                buffer.put( b, i, n );
+                i += n;
+            }
+            return this;
+        }
+
+        Output putDoubles( double[] v, int count ) throws IOException {
+            for( int i=0; i<count; ) {
+                room( 8 );
+                int n = Math.min( count - i, buffer.remaining() / 8 );
+                buffer.asDoubleBuffer().put( v, i, n );
+                buffer.position( buffer.position() + 8 * n );
+                i += n;
+            }
+            return this;
+        }
+
+        Output putInts( int[] v, int count ) throws IOException {
+            for( int i=0; i<count; ) {
+                room( 4 );
+                int n = Math.min( count - i, buffer.remaining() / 4 );
+                buffer.asIntBuffer().put( v, i, n );
+                buffer.position( buffer.position() + 4 * n );
+                i += n;
+            }
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void room( int n ) throws IOException {
+            if ( buffer.remaining() < n ) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while ( buffer.hasRemaining() ) {
+                channel.write( buffer );
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Input reads a checkpoint through a buffer it refills from the file as it empties
+     */
+    static final class Input implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+
+        Input( Path file ) throws IOException {
+            channel = FileChannel.open( file, StandardOpenOption.READ );
+            buffer.limit( 0 );
+        }
+
+        int getInt() throws IOException { fill( 4 ); return buffer.getInt(); }
+        long getLong() throws IOException { fill( 8 ); return buffer.getLong(); }
+        double getDouble() throws IOException { fill( 8 ); return buffer.getDouble(); }
+
+        String getString() throws IOException {
+            return new String( getBytes(), StandardCharsets.UTF_8 );
+        }
+
+        byte[] getBytes() throws IOException {
+            int length = getInt();
+            if ( length < 0 || length > channel.size() ) {
+                throw new IOException( "corrupt checkpoint: " + length + " byte field" );
+            }
+            byte[] b = new byte[length];
+            for( int i=0; i<length; ) {
+                fill( 1 );
+                int n = Math.min( length - i, buffer.remaining() );
+                buffer.get( b, i, n );
+                i += n;
+            }
+            return b;
+        }
+
+        void getDoubles( double[] v, int count ) throws IOException {
+            for( int i=0; i<count; ) {
+                fill( 8 );
+                int n = Math.min( count - i, buffer.remaining() / 8 );
+                buffer.asDoubleBuffer().get( v, i, n );
+                buffer.position( buffer.position() + 8 * n );
+                i += n;
+            }
+        }
+
+        void getInts( int[] v, int count ) throws IOException {
+            for( int i=0; i<count; ) {
+                fill( 4 );
+                int n = Math.min( count - i, buffer.remaining() / 4 );
+                buffer.asIntBuffer().get( v, i, n );
+                buffer.position( buffer.position() + 4 * n );
+                i += n;
+            }
+        }
+
+        /**
+         * getCount() - reads a number of items, checking that the file could hold that many
+         * @param bytesEach bytes each item takes in the file
+         * @return the count
+         * @throws IOException if the count cannot be right
+         */
+        int getCount( int bytesEach ) throws IOException {
+            int count = getInt();
+            if ( count < 0 || (long) count * bytesEach > channel.size() ) {
+                throw new IOException( "corrupt checkpoint: count of " + count );
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void fill( int n ) throws IOException {
+            if ( buffer.remaining() >= n ) {
+                return;
+            }
+            buffer.compact();
+            while ( buffer.position() < n ) {
+                if ( channel.read( buffer ) < 0 ) {
+                    throw new IOException( "corrupt checkpoint: file ends early" );
+                }
+            }
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/*******************************************************************************************
+ * CommandQueue is a lock-free multiple-producer, single-consumer queue.  Any number of
+ * threads (such as the Swing event thread) may offer() commands; only one thread, the
+ * simulation thread, may poll() them.  Offering is a single atomic swap, so producers never
+ * block each other or the consumer.
+ *
+ * @param <T> type of the queued commands
+ */
+class CommandQueue<T> {
+
+    private static final class Node<T> {
+        T value;
+        volatile Node<T> next;
+
+        Node( T value ) {
+            this.value = value;
+        }
+    }
+
+    private final AtomicReference<Node<T>> head;   // most recently offered node, swapped by producers
+    private Node<T> tail;                          // last consumed node (a stub), consumer only
+
+    CommandQueue() {
+        tail = new Node<>( null );
+        head = new AtomicReference<>( tail );
+    }
+
+    /************************************************************************
+     * Adds a command to the queue; safe to call from any thread
+     * @param value command to add
+     */
+    void offer( T value ) {
+        Node<T> node = new Node<>( value );
+        Node<T> previous = head.getAndSet( node );
+
+        // until this link is written the consumer sees the queue end at previous,
+        // so it never reads a partly linked node
+
+        previous.next = node;
+    }
+
+    /************************************************************************
+     * Removes the oldest command; only the consumer thread may call this
+     * @return the oldest command, or null if there is none (yet)
+     */
+    T poll() {
+        Node<T> next = tail.next;
+        if ( next == null ) {
+            return null;
+        }
+        T value = next.value;
+        next.value = null;   // next becomes the stub; don't hold on to the command
+        tail = next;
+        return value;
+    }
+}
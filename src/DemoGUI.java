@@ -15,22 +15,13 @@
  */
 
 /*
- * Known Issues:
- *  Cannot open both windows at once.
- *  *   Everything to worked when individually tested. I tried
- *  *   every combination of threading and executors I could
- *  *   think of and never could get both to open at once.
- *
  *  To Run:
- *      Run the program. It'll open the game. ****When you left click to exit
- *      the game, you'll see the GUI pop up****. From there you can adjust
- *      whatever you like.
- *
- *      Every button is bound to an event listener as you can see.
+ *      Run the program. It opens the game on its own thread and the GUI
+ *      alongside it. From there you can adjust whatever you like.
  *
- *      Note: AddFlock, EditFlock, and NonFlockOperation Buttons
- *            fail b/c the game is no longer running however their binding
- *            functions tested fine.
+ *      Every button is bound to an event listener as you can see. The
+ *      listeners run on the Swing event thread, so FlockingSimulation queues
+ *      each edit and applies it between ticks of the game.
  */
 
 import javax.swing.*;
@@ -128,10 +119,8 @@ public class DemoGUI {
             @Override
             public void actionPerformed(ActionEvent e) {
                 //reset game w/ new random Boid locations and rand velocities (incl rand directions)
-                //easiest way is to closeWindow() and rerun game returning the new object
-                //as this will reset everything w/ the default constructor
-                fs.close();
-                fs.activate();
+                //by replacing the flocks with new default ones between ticks
+                fs.reset();
             }
         });
 
@@ -217,10 +206,14 @@ public class DemoGUI {
      * @param args default args to main
      */
     public static void main(String[] args) {
-//Concurrency Attempt 1
+        //run the game on its own thread so both windows are open at once
         fs = new FlockingSimulation();
-        fs.activate();
-        fs.waitUntilInitialized();
+        Thread game = new Thread(fs::activate, "Flocking Simulation");
+        game.start();
+        if (!fs.waitUntilInitialized()) {
+            System.out.println("DemoGUI: the simulation failed to start");
+            return;
+        }
 
         JFrame frame = new JFrame("Flock Simulation GUI");
         DemoGUI thisGUI = new DemoGUI();
@@ -230,67 +223,6 @@ public class DemoGUI {
         frame.setSize(900, 650);
         thisGUI.initializeDropdownBoxes();
         frame.setVisible(true);
-
-//Concurrency Attempt 2
-/*      fs = new FlockingSimulation();
-        fs.activate();
-
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                JFrame frame = new JFrame("Flock Simulation GUI");
-                DemoGUI thisGUI = new DemoGUI();
-                frame.setContentPane(thisGUI.panelMain);
-                frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-                frame.pack();
-                frame.setSize(900, 650);
-                thisGUI.initializeDropdownBoxes();
-                frame.setVisible(true);
-            }
-        } );*/
-
-//Concurrency Attempt 3
-/*        Runnable runGame = () -> {
-            fs = new FlockingSimulation();
-            fs.activate();
-        };
-        runGame.run();
-
-        Runnable runGUI = () -> {
-            JFrame frame = new JFrame("Flock Simulation GUI");
-            DemoGUI thisGUI = new DemoGUI();
-            frame.setContentPane(thisGUI.panelMain);
-            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-            frame.pack();
-            frame.setSize(900, 650);
-            thisGUI.initializeDropdownBoxes();
-            frame.setVisible(true);
-        };
-        runGUI.run();*/
-
-//Concurrency Attempt 4
-        /*        Runnable runGame = () -> {
-            fs = new FlockingSimulation();
-            fs.activate();
-        };
-        runGame.run();
-
-        Runnable runGUI = () -> {
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                JFrame frame = new JFrame("Flock Simulation GUI");
-                DemoGUI thisGUI = new DemoGUI();
-                frame.setContentPane(thisGUI.panelMain);
-                frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-                frame.pack();
-                frame.setSize(900, 650);
-                thisGUI.initializeDropdownBoxes();
-                frame.setVisible(true);
-            }
-        } );
-        };
-        runGUI.run();*/
     }
 
     /**
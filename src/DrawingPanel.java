@@ -5,7 +5,9 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 
 /**
  * <hr>
@@ -79,7 +81,14 @@ public class DrawingPanel extends Thread
   private JFrame           frame;             // overall window frame
   private MyCanvas canvas;            // drawing canvas for window (inside panel)
   private BufferedImage    image;             // remembers drawing commands
+  private BufferedImage    screenImage;       // stands in for the screen when there is no window
   private Graphics2D       offscreenGraphics; // buffered graphics context for painting
+  private boolean          activeRendering;   // present by page flipping (see setActiveRendering())
+  private BufferStrategy   bufferStrategy;    // the canvas's flip chain in active mode
+  private VolatileImage    volatileImage;     // accelerated drawing surface in active mode
+  private boolean          imageCurrent;      // image was read back from volatileImage this frame
+  private Graphics2D       pixelGraphics;     // setRGB()'s context on volatileImage
+  private Color            pixelColor;        // setRGB()'s last color
   private JLabel           statusBar;         // status bar showing mouse position
   private Thread           application;
 
@@ -121,14 +130,60 @@ public class DrawingPanel extends Thread
    * @param desiredHeight the height of the drawing panel window, in pixels
    */
   public DrawingPanel(int desiredWidth, int desiredHeight) {
+    this(desiredWidth, desiredHeight, true);
+  }
+
+  // ----------------------------------------------------------------------------
+  /**
+   * Construct a drawing panel with or without a window. A panel without a
+   * window draws as usual, and copyGraphicsToScreen() copies the offscreen
+   * buffer into a second image (see getScreenImage()) instead of onto a canvas,
+   * so the full drawing path can be exercised and timed without a display.
+   * 
+   * @param desiredWidth the width of the drawing area, in pixels
+   * @param desiredHeight the height of the drawing area, in pixels
+   * @param windowed true to show the panel in a window
+   */
+  private DrawingPanel(int desiredWidth, int desiredHeight, boolean windowed) {
     // Keep a reference to the user application so that it can be suspended to
     // wait for mouse and keyboard events.
     width = desiredWidth;
     height = desiredHeight;
     application = Thread.currentThread();
 
-    // Start the drawing panel in its own thread
-    this.run();
+    if (windowed) {
+      // Start the drawing panel in its own thread
+      this.run();
+      return;
+    }
+    image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    offscreenGraphics = image.createGraphics();
+    offscreenGraphics.setColor(Color.BLACK);
+    screenImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+    initializeInputState();
+  }
+
+  // ----------------------------------------------------------------------------
+  /**
+   * Create a drawing panel with no window (see the private constructor above).
+   * 
+   * Example code:
+   * <pre>
+   * <code>
+   *    DrawingPanel panel = DrawingPanel.createOffscreen(1000, 700);
+   *    panel.getGraphics().fillOval(50, 50, 100, 100);
+   *    panel.copyGraphicsToScreen();
+   *    BufferedImage shown = panel.getScreenImage();
+   * </code>
+   * </pre>
+   * 
+   * @param desiredWidth the width of the drawing area, in pixels
+   * @param desiredHeight the height of the drawing area, in pixels
+   * @return the new window-less DrawingPanel
+   */
+  public static DrawingPanel createOffscreen(int desiredWidth, int desiredHeight) {
+    return new DrawingPanel(desiredWidth, desiredHeight, false);
   }
 
   // ----------------------------------------------------------------------------
@@ -176,8 +231,24 @@ public class DrawingPanel extends Thread
     frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     frame.toFront();
 
-    // Initialize the mouse states
+    initializeInputState();
+
+    // Wait for one second to give the swing library time to create the GUI
+    // and get it on the screen. This makes sure that the AWT canvas
+    // exists on the screen by the time the application tries to display
+    // graphics to it.
+    sleep(INITIAL_DELAY);
+
+    // Make the canvas have the focus so that events are immediately sent to it.
+    canvas.requestFocus();
+    frame.setAlwaysOnTop(false);
+  }
 
+  // ----------------------------------------------------------------------------
+  /*
+   * Initialize the mouse and keyboard states.
+   */
+  private void initializeInputState() {
     // Mouse status for interactive tracking of the mouse and its buttons
     mouseClicked = new boolean[4];
     mouseClickedX = new int[4];
@@ -206,16 +277,6 @@ public class DrawingPanel extends Thread
     mostRecentKeyHit = 0;
 
     debug = "";
-
-    // Wait for one second to give the swing library time to create the GUI
-    // and get it on the screen. This makes sure that the AWT canvas
-    // exists on the screen by the time the application tries to display
-    // graphics to it.
-    sleep(INITIAL_DELAY);
-
-    // Make the canvas have the focus so that events are immediately sent to it.
-    canvas.requestFocus();
-    frame.setAlwaysOnTop(false);
   }
 
   // ----------------------------------------------------------------------------
@@ -225,7 +286,9 @@ public class DrawingPanel extends Thread
    * @param name the name of the window
    */
   public void setWindowTitle(String name) {
-    frame.setTitle(name);
+    if (frame != null) {
+      frame.setTitle(name);
+    }
   }
 
   // ----------------------------------------------------------------------------
@@ -235,7 +298,9 @@ public class DrawingPanel extends Thread
    * access the DrawingPanel after it is closed will generate an error.
    */
   public void closeWindow() {
-    frame.dispose();
+    if (frame != null) {
+      frame.dispose();
+    }
   }
 
   // ----------------------------------------------------------------------------
@@ -583,7 +648,9 @@ public class DrawingPanel extends Thread
    * Obtain the Graphics object needed to draw on the DrawingPanel's offscreen
    * graphics buffer. Make sure you call copyGraphicsToScreen() after all of your
    * drawing methods have been called to copy the offscreen graphics to the
-   * screen.    
+   * screen. (The object changes when active rendering is switched on or off and,
+   * in active rendering, when the accelerated buffer has to be recreated, so
+   * fetch it again for each frame rather than keeping it.)    
    * 
    * Example code:
    * <pre>
@@ -634,8 +701,154 @@ public class DrawingPanel extends Thread
    * be called as few times as possible.
    */
   public void copyGraphicsToScreen() {
+    if (canvas == null) {
+      Graphics2D screenG = screenImage.createGraphics();
+      screenG.drawImage(image, 0, 0, width, height, null);
+      screenG.dispose();
+      return;
+    }
+    if (activeRendering) {
+      presentActive();
+      return;
+    }
     Graphics2D myG = (Graphics2D) canvas.getGraphics();
-    myG.drawImage(image, 0, 0, width, height, null);
+    myG.drawImage(image, 0, 0, null);
+    myG.dispose();
+  }
+
+  // ----------------------------------------------------------------------------
+  /**
+   * Switch active rendering on or off. In active rendering the drawing buffer
+   * is an accelerated VolatileImage, and copyGraphicsToScreen() copies it into
+   * the back buffer of a BufferStrategy and flips it onto the screen, instead of
+   * copying a BufferedImage onto the canvas in software. Call this from the
+   * thread that draws, and fetch getGraphics() again afterwards.
+   * 
+   * The video memory holding an accelerated image can be reclaimed by the
+   * system (e.g. on a display mode change). When that happens the frame being
+   * drawn is lost and the buffer comes back cleared, so in active rendering an
+   * application should redraw everything each frame. (Does nothing for a panel
+   * made with createOffscreen().)
+   * 
+   * Example code:
+   * <pre>
+   * <code>
+   *    window.setActiveRendering(true);
+   *    Graphics2D pen = window.getGraphics();
+   * </code>
+   * </pre>
+   * 
+   * @param enabled true to present by page flipping
+   */
+  public void setActiveRendering(boolean enabled) {
+    if (canvas == null || enabled == activeRendering) {
+      return;
+    }
+    if (enabled) {
+      canvas.setIgnoreRepaint(true);
+      canvas.createBufferStrategy(2);
+      bufferStrategy = canvas.getBufferStrategy();
+      activeRendering = true;
+      imageCurrent = false;
+      validateVolatileImage();
+    } else {
+      // carry the current drawing back into the BufferedImage
+      Graphics2D g = image.createGraphics();
+      g.drawImage(volatileImage, 0, 0, null);
+      g.setColor(offscreenGraphics.getColor());
+      offscreenGraphics.dispose();
+      offscreenGraphics = g;
+      pixelGraphics.dispose();
+      pixelGraphics = null;
+      volatileImage.flush();
+      volatileImage = null;
+      bufferStrategy.dispose();
+      bufferStrategy = null;
+      canvas.setIgnoreRepaint(false);
+      activeRendering = false;
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  /**
+   * Return true if the panel presents by page flipping (see
+   * setActiveRendering()).
+   * 
+   * @return true in active rendering
+   */
+  public boolean isActiveRendering() {
+    return activeRendering;
+  }
+
+  // ----------------------------------------------------------------------------
+  /*
+   * Copy the drawing buffer into the back buffer and flip it onto the screen,
+   * repeating if the back buffer was lost on the way.
+   */
+  private void presentActive() {
+    do {
+      do {
+        Graphics g = bufferStrategy.getDrawGraphics();
+        if (!volatileImage.contentsLost()) {
+          g.drawImage(volatileImage, 0, 0, null);
+        }
+        g.dispose();
+      } while (bufferStrategy.contentsRestored());
+      bufferStrategy.show();
+    } while (bufferStrategy.contentsLost());
+
+    // flush the window system's queue so frames are shown as they are flipped
+    Toolkit.getDefaultToolkit().sync();
+
+    // the next frame is drawn over this one, so getRGB() reads it back afresh
+    imageCurrent = false;
+
+    // make sure the drawing buffer is usable for the next frame
+    validateVolatileImage();
+  }
+
+  // ----------------------------------------------------------------------------
+  /*
+   * Make sure the accelerated drawing buffer exists and suits the screen the
+   * canvas is on, recreating it (and the graphics context returned by
+   * getGraphics()) if not. A buffer whose contents were lost but restored is
+   * kept; it is cleared and the next frame redraws it.
+   */
+  private void validateVolatileImage() {
+    GraphicsConfiguration gc = canvas.getGraphicsConfiguration();
+    if (volatileImage != null
+        && volatileImage.validate(gc) != VolatileImage.IMAGE_INCOMPATIBLE) {
+      return;
+    }
+    boolean first = (volatileImage == null);
+    if (!first) {
+      volatileImage.flush();
+    }
+    volatileImage = gc.createCompatibleVolatileImage(width, height);
+    Graphics2D g = volatileImage.createGraphics();
+    if (first) {
+      g.drawImage(image, 0, 0, null);  // keep whatever has been drawn so far
+    }
+    g.setColor(offscreenGraphics.getColor());
+    offscreenGraphics.dispose();
+    offscreenGraphics = g;
+    if (pixelGraphics != null) {
+      pixelGraphics.dispose();
+    }
+    pixelGraphics = volatileImage.createGraphics();
+    pixelColor = null;
+    imageCurrent = false;
+  }
+
+  // ----------------------------------------------------------------------------
+  /**
+   * Return the image that copyGraphicsToScreen() copies into for a panel made
+   * with createOffscreen(). (Returns null for a panel with a window.)
+   * 
+   * @return the stand-in screen image, or null
+   */
+  public BufferedImage getScreenImage() {
+    return screenImage;
   }
 
   // ----------------------------------------------------------------------------
@@ -1222,12 +1435,17 @@ public class DrawingPanel extends Thread
    * Return an integer representation of the color at a specified pixel
    * location.
    * 
+   * In active rendering the drawing buffer is in video memory, and it is read
+   * back at most once per frame: the first call after copyGraphicsToScreen()
+   * sees everything drawn until then, and later calls in the same frame see
+   * only what setRGB() has changed since.
+   * 
    * @param x the x coordinate of the pixel you want the color of
    * @param y the y coordinate of the pixel you want the color of
    */
   public int getRGB(int x, int y) {
     try {
-      return image.getRGB(x, y);
+      return currentImage().getRGB(x, y);
     } catch (Exception e) {
       return 0;
     }
@@ -1242,6 +1460,19 @@ public class DrawingPanel extends Thread
    * @param RGB the color you want to change the pixel to
    */
   public void setRGB(int x, int y, int RGB) {
+    if (activeRendering) {
+      if (x >= 0 && x < width && y >= 0 && y < height) {
+        if (pixelColor == null || pixelColor.getRGB() != (RGB | 0xff000000)) {
+          pixelColor = new Color(RGB);
+          pixelGraphics.setColor(pixelColor);
+        }
+        pixelGraphics.fillRect(x, y, 1, 1);
+        if (imageCurrent) {
+          image.setRGB(x, y, RGB);  // keep this frame's read-back in step
+        }
+      }
+      return;
+    }
     try {
       image.setRGB(x, y, RGB);
     } catch (Exception e) {
@@ -1262,12 +1493,30 @@ public class DrawingPanel extends Thread
 
     // write file
     try {
-      ImageIO.write(image, extension, new java.io.File(filename));
+      if (activeRendering) {
+        imageCurrent = false;  // save everything drawn so far this frame
+      }
+      ImageIO.write(currentImage(), extension, new java.io.File(filename));
     } catch (java.io.IOException e) {
       System.err.println("Unable to save image:\n" + e);
     }
   }
 
+  // ----------------------------------------------------------------------------
+  /*
+   * Return the image holding the current drawing: the BufferedImage, which in
+   * active rendering is read back from the accelerated buffer once per frame.
+   */
+  private BufferedImage currentImage() {
+    if (activeRendering && !imageCurrent) {
+      Graphics2D g = image.createGraphics();
+      g.drawImage(volatileImage, 0, 0, null);
+      g.dispose();
+      imageCurrent = true;
+    }
+    return image;
+  }
+
   // ----------------------------------------------------------------------------
   /**
    * Load an image into memory.
@@ -1305,7 +1554,10 @@ class MyCanvas extends Canvas {
   // -------------------------------------------------------------------
   @Override
   public void paint(Graphics g) {
-    panel.copyGraphicsToScreen();
+    // in active rendering the drawing thread presents every frame itself
+    if (!panel.isActiveRendering()) {
+      panel.copyGraphicsToScreen();
+    }
   }
 }
 
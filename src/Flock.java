@@ -1,6 +1,12 @@
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /*******************************************************************************************
  * The Flock class is an aggregation of Boid objects all with similar characteristics
@@ -12,21 +18,76 @@ import java.util.ArrayList;
  */
 public class Flock {
 
+    // tolerance for a zero-length vector, the same one Vector330Class.normalize() uses
+    private static final double EPS = 1.0E-09;
+
+    // number of Boids below which a parallel step stops splitting its work
+    static final int PARALLEL_GRAIN = 256;
+
+    // Boids created with each generator split from a new flock's generator
+    private static final int SPAWN_BLOCK = 4096;
+
+    // bytes each Boid takes in a Checkpoint
+    private static final int BYTES_PER_BOID = 5 * 8 + 4 * 4;
+
+    // ticks between sorts of ARRAYS storage into Morton order
+    static final int REORDER_INTERVAL = 32;
+
+    // candidate neighbor buffers for the worker threads of a parallel step
+    private static final ThreadLocal<int[]> WORKER_CANDIDATES = ThreadLocal.withInitial( () -> new int[0] );
+
+    // Barnes-Hut totals for each thread of a step
+    private static final ThreadLocal<BarnesHutTree.Sums> WORKER_SUMS = ThreadLocal.withInitial( BarnesHutTree.Sums::new );
+
+    // k-nearest heaps for each thread of a step in topological mode
+    private static final ThreadLocal<KNearest> WORKER_NEAREST = ThreadLocal.withInitial( KNearest::new );
+
+    // source of the ids that tell flocks apart in recordings
+    private static final AtomicInteger NEXT_ID = new AtomicInteger( 1 );
+
     // instance attributes
 
     private ArrayList<Boid> flock;
     private String name = "";
+    private int id = NEXT_ID.getAndIncrement();   // unique for the life of the program
 
     private int radiusSeparation = 30;
     private int radiusAlignment = 50;
     private int radiusCohesion = 50;
     private int radiusEvasion = 150;
+    private int topologicalNeighbors = 0;    // 0 for the metric (radius) rules
+    private int topologicalRadius = 0;       // radius the index is sized for in topological mode, 0 until known
 
     private double weightCurrentVelocity = 0.4;
     private double weightSeparation = 0.2;
     private double weightAlignment = 0.2;
     private double weightCohesion = 0.2;
 
+    // neighbor search support; the index is rebuilt from the flat location arrays every tick.
+    // With OBJECTS storage the arrays are gathered from the Boids each tick; with ARRAYS storage
+    // they are the simulation state and the Boids are only brought up to date when needed.
+
+    private StorageMode storageMode = StorageMode.OBJECTS;
+    private KernelMode kernelMode = KernelMode.SEPARATE;
+    private NeighborMode neighborMode = NeighborMode.GRID;
+    private NeighborIndex index = new SpatialGrid();
+    private double verletSkin = VerletListIndex.DEFAULT_SKIN;
+    private BoidArrays state = new BoidArrays();
+    private boolean arraysStale = true;     // Boids were changed since the arrays were loaded
+    private boolean boidsStale = false;     // arrays were stepped since the Boids were stored
+    private int[] candidates = new int[0];   // candidate neighbors of the Boid currently being moved
+    private ForkJoinPool stepPool = null;     // null steps on the calling thread
+    private boolean steered = false;          // state.steerX/steerY hold steering for this tick
+    private boolean indexStale = true;        // Boids moved since the index was built
+    private int reorderInterval = REORDER_INTERVAL;   // 0 never sorts
+    private int ticksToReorder = 0;                  // sorts on the first step in ARRAYS storage
+    private double barnesHutTheta = 0.0;             // 0 computes alignment and cohesion exactly
+    private BarnesHutTree tree = null;               // only while barnesHutTheta > 0
+    private int[] evaded = new int[0];        // Boids moved so far by the disruption points being applied
+    private boolean[] evadedFlag = new boolean[0];
+    private final int[] pointX = new int[1];      // the one disruption point of evade(x, y)
+    private final int[] pointY = new int[1];
+
     // constructors
 
     /**************************************************************************************
@@ -38,17 +99,59 @@ public class Flock {
      * @throws Exception - any exception is thrown to the caller
      */
     Flock( String name, int count ) throws Exception {
+        this( name, count, Boid.splitRandom() );
+    }
+
+    /**************************************************************************************
+     * Seeded flock constructor: the same seed always places the Boids the same way.
+     *
+     * @param name - name to be associated with the new Flock object
+     * @param count - number of Boid objects to create in the flock
+     * @param seed - seed of the flock's random number generator
+     * @throws Exception - any exception is thrown to the caller
+     */
+    Flock( String name, int count, long seed ) throws Exception {
+        this( name, count, new FlockRandom( seed ) );
+    }
+
+    /**************************************************************************************
+     * Base flock constructor placing the Boids with the given generator.  The Boids are
+     * created in blocks of SPAWN_BLOCK, each with its own generator split from this one
+     * up front, so large flocks are created in parallel and still come out the same for
+     * the same generator however the blocks are scheduled.
+     *
+     * @param name - name to be associated with the new Flock object
+     * @param count - number of Boid objects to create in the flock
+     * @param random - generator for the flock's exclusive use
+     * @throws Exception - any exception is thrown to the caller
+     */
+    private Flock( String name, int count, FlockRandom random ) throws Exception {
 
         // set main Flock attributes
 
-        this.flock = new ArrayList<Boid>();
+        this.flock = new ArrayList<Boid>( count );
         this.name = name;
 
-        // populate the flock ArrayList
+        // populate the flock ArrayList; the first block on this thread, so a world without
+        // a size throws from here, and the rest in parallel
 
-        for( int i=0; i<count; i++ ) {
-            this.flock.add( new Boid());
+        int blocks = (count + SPAWN_BLOCK - 1) / SPAWN_BLOCK;
+        FlockRandom[] streams = new FlockRandom[blocks];
+        for( int b=0; b<blocks; b++ ) {
+            streams[b] = random.split();
+        }
+        Boid[] boids = new Boid[count];
+        if ( blocks > 0 ) {
+            spawnBlock( boids, 0, streams[0] );
         }
+        IntStream.range( 1, blocks ).parallel().forEach( b -> {
+            try {
+                spawnBlock( boids, b, streams[b] );
+            } catch (Exception e) {
+                throw new IllegalStateException( e );
+            }
+        } );
+        this.flock.addAll( Arrays.asList( boids ) );
     } // end Boid() constructor
 
     /************************************************************************************
@@ -62,10 +165,30 @@ public class Flock {
      * @throws Exception    - all exceptions are thrown to the caller
      */
     Flock(String name, int count, Color color, int size, double speed ) throws Exception {
+        this( name, count, color, size, speed, Boid.splitRandom() );
+    }
+
+    /************************************************************************************
+     * Seeded full-argument constructor: the same seed always places the Boids the same way.
+     *
+     * @param name  - name of the new flock
+     * @param count - number of Boids in the new flock
+     * @param color - color of each Boid in the flock
+     * @param size  - size of each Boid in the new flock
+     * @param speed - speed of each Boid in the new flock
+     * @param seed  - seed of the flock's random number generator
+     * @throws Exception    - all exceptions are thrown to the caller
+     */
+    Flock(String name, int count, Color color, int size, double speed, long seed ) throws Exception {
+        this( name, count, color, size, speed, new FlockRandom( seed ) );
+    }
+
+    private Flock(String name, int count, Color color, int size, double speed, FlockRandom random )
+        throws Exception {
 
         // call the base constructor
 
-        this( name, count );
+        this( name, count, random );
 
         // update color, size, and speed for each member of the flock
 
@@ -103,22 +226,222 @@ public class Flock {
         }
     }
 
+    /****************************************************************************************************
+     * Creates one block of Boids, the ones from b * SPAWN_BLOCK on, with the block's own generator
+     */
+    private static void spawnBlock( Boid[] boids, int b, FlockRandom random ) throws Exception {
+        int end = Math.min( boids.length, (b + 1) * SPAWN_BLOCK );
+        for( int i=b * SPAWN_BLOCK; i<end; i++ ) {
+            boids[i] = new Boid( random );
+        }
+    }
+
+    /****************************************************************************************************
+     * Restore constructor that reads a flock written by save() from a Checkpoint.  The flock gets a new id.
+     *
+     * @param in the checkpoint being read
+     * @throws IOException if the checkpoint cannot be read or is corrupt
+     */
+    Flock( Checkpoint.Input in ) throws IOException {
+        this.name = in.getString();
+        this.radiusSeparation = in.getInt();
+        this.radiusAlignment = in.getInt();
+        this.radiusCohesion = in.getInt();
+        this.radiusEvasion = in.getInt();
+        this.weightCurrentVelocity = in.getDouble();
+        this.weightSeparation = in.getDouble();
+        this.weightAlignment = in.getDouble();
+        this.weightCohesion = in.getDouble();
+        this.storageMode = mode( StorageMode.values(), in.getInt() );
+        this.kernelMode = mode( KernelMode.values(), in.getInt() );
+        setNeighborMode( mode( NeighborMode.values(), in.getInt() ) );
+        this.reorderInterval = Math.max( 0, in.getInt() );
+        this.ticksToReorder = Math.max( 0, in.getInt() );
+        setBarnesHutTheta( in.getDouble() );
+        setTopologicalNeighbors( in.getInt() );
+
+        // the Boids, an attribute at a time
+
+        int count = in.getCount( BYTES_PER_BOID );
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] vx = new double[count];
+        double[] vy = new double[count];
+        double[] speed = new double[count];
+        int[] size = new int[count];
+        int[] rgb = new int[count];
+        int[] movement = new int[count];
+        in.getDoubles( x, count );
+        in.getDoubles( y, count );
+        in.getDoubles( vx, count );
+        in.getDoubles( vy, count );
+        in.getDoubles( speed, count );
+        in.getInts( size, count );
+        in.getInts( rgb, count );
+        in.getInts( movement, count );
+        int[] order = new int[count];
+        in.getInts( order, count );
+        state.setOrder( checkOrder( order ) );
+
+        MoveMode[] modes = MoveMode.values();
+        this.flock = new ArrayList<Boid>( count );
+        Color color = null;
+        for( int i=0; i<count; i++ ) {
+            if ( color == null || color.getRGB() != rgb[i] ) {   // Boids of a flock nearly always share a color
+                color = new Color( rgb[i], true );
+            }
+            this.flock.add( new Boid( x[i], y[i], vx[i], vy[i], speed[i], size[i], color,
+                                      mode( modes, movement[i] ) ) );
+        }
+    }
+
     /* Getter/Setter methods */
 
     public String getName() {
         return name;
     }
 
+    int getId() { return this.id; }
+
     void setRadiusSeparation( int radiusSeparation ) { this.radiusSeparation = radiusSeparation; }
     void setRadiusAlignment( int radiusAlignment ) { this.radiusAlignment = radiusAlignment; }
     void setRadiusCohesion( int radiusCohesion ) { this.radiusCohesion = radiusCohesion; }
     void setRadiusEvasion( int radiusEvasion ) { this.radiusEvasion = radiusEvasion; }
 
+    int getTopologicalNeighbors() { return this.topologicalNeighbors; }
+
+    /**************************************************************************************************
+     * Selects topological flocking, where each Boid reacts to a fixed number of its nearest flockmates
+     * (about 7 in real starling flocks) however near or far they are, instead of to every flockmate
+     * within the alignment and cohesion radii.  Alignment and cohesion are over those k and the Boid
+     * itself; separation is over those of the k within radiusSeparation.  The k are found with a
+     * bounded max-heap over the candidates of a neighbor search that starts at last tick's distance to
+     * the k-th nearest and widens until it holds them, so each Boid costs about the same in a dense
+     * clump as in open space.  Takes the place of the Barnes-Hut approximation, and the rules are
+     * applied as the FUSED kernel does, whatever the kernel mode.  VERLET lists still work, but
+     * their skin is usually wider than the distance to the k-th nearest, so they give each Boid
+     * more candidates than GRID or QUADTREE does.
+     *
+     * @param k - number of nearest flockmates each Boid reacts to, or 0 for the metric rules
+     */
+    void setTopologicalNeighbors( int k ) {
+        this.topologicalNeighbors = Math.max( 0, k );
+        this.topologicalRadius = 0;
+        this.indexStale = true;
+    }
+
     void setWeightCurrentVelocity( double weightCurrentVelocity) { this.weightCurrentVelocity = weightCurrentVelocity; }
     void setWeightSeparation( double weightSeparation ) { this.weightSeparation = weightSeparation; }
     void setWeightAlignment( double weightAlignment ) { this.weightAlignment = weightAlignment; }
     void setWeightCohesion( double weightCohesion ) { this.weightCohesion = weightCohesion; }
 
+    StorageMode getStorageMode() { return this.storageMode; }
+
+    /**************************************************************************************************
+     * Selects where the flock's motion state lives while stepping.  ARRAYS keeps locations and
+     * velocities in primitive arrays (always using the FUSED kernel) and copies them back into the
+     * Boids only when they are drawn, evaded, or edited.
+     *
+     * @param storageMode - OBJECTS to step the Boid objects or ARRAYS to step the structure of arrays
+     */
+    void setStorageMode( StorageMode storageMode ) {
+        syncBoids();
+        this.storageMode = storageMode;
+        this.arraysStale = true;
+        this.ticksToReorder = 0;
+    }
+
+    int getReorderInterval() { return this.reorderInterval; }
+
+    /**************************************************************************************************
+     * Sets how often ARRAYS storage is sorted into Morton order of location (see BoidArrays), so the
+     * neighbors of each Boid are near it in memory.  The Boids keep their place in the flock's list,
+     * so drawing, editing, snapshots, recordings, and checkpoints see them as before; only the order
+     * of each Boid's neighbor sums changes, which changes results within floating point rounding.
+     *
+     * @param reorderInterval - ticks between sorts, or 0 never to sort
+     */
+    void setReorderInterval( int reorderInterval ) { this.reorderInterval = Math.max( 0, reorderInterval ); }
+
+    KernelMode getKernelMode() { return this.kernelMode; }
+
+    /**************************************************************************************************
+     * Selects how move() applies the flocking rules.  FUSED computes the squared distance to each
+     * candidate once and accumulates all three rules in the same pass; the result matches SEPARATE
+     * to within floating point rounding.
+     *
+     * @param kernelMode - SEPARATE for one pass per rule or FUSED for a single combined pass
+     */
+    void setKernelMode( KernelMode kernelMode ) { this.kernelMode = kernelMode; }
+
+    ForkJoinPool getStepPool() { return this.stepPool; }
+
+    /**************************************************************************************************
+     * Selects parallel stepping.  When a pool is set, move() spreads the new velocity computation and
+     * then the integration across it; each Boid is still computed exactly as in the sequential step,
+     * so the results are bit-identical.
+     *
+     * @param stepPool - ForkJoinPool to step on, or null to step sequentially on the calling thread
+     */
+    void setStepPool( ForkJoinPool stepPool ) { this.stepPool = stepPool; }
+
+    NeighborMode getNeighborMode() { return this.neighborMode; }
+
+    /**************************************************************************************************
+     * Selects the neighbor search used by move().  All modes produce identical flocking results;
+     * the grid and the quadtree only avoid looking at Boids that cannot be within any of the
+     * flocking radii (the quadtree more tightly when the flock is clumped), and the Verlet lists
+     * only redo that search once some Boid has moved more than half the skin.
+     *
+     * @param neighborMode - BRUTE_FORCE to scan the whole flock, GRID to use a spatial hash grid,
+     *                       VERLET to reuse per-Boid neighbor lists across ticks, or QUADTREE to use
+     *                       an adaptive quadtree
+     */
+    void setNeighborMode( NeighborMode neighborMode ) {
+        this.neighborMode = neighborMode;
+        switch ( neighborMode ) {
+            case BRUTE_FORCE: this.index = new BruteForceIndex(); break;
+            case VERLET:      this.index = new VerletListIndex( verletSkin ); break;
+            case QUADTREE:    this.index = new QuadTreeIndex(); break;
+            default:          this.index = new SpatialGrid(); break;
+        }
+        this.indexStale = true;
+    }
+
+    double getVerletSkin() { return this.verletSkin; }
+
+    /**************************************************************************************************
+     * Sets how much further than the largest flocking radius the VERLET neighbor lists reach.  A
+     * larger skin rebuilds the lists less often but gives every Boid more candidates to test.
+     *
+     * @param verletSkin - the skin, in pixels
+     */
+    void setVerletSkin( double verletSkin ) {
+        this.verletSkin = verletSkin;
+        if ( neighborMode == NeighborMode.VERLET ) {
+            setNeighborMode( neighborMode );
+        }
+    }
+
+    double getBarnesHutTheta() { return this.barnesHutTheta; }
+
+    /**************************************************************************************************
+     * Selects Barnes-Hut approximation of the alignment and cohesion rules (see BarnesHutTree), for
+     * radii wide enough that each Boid has most of the flock as neighbors.  Groups of Boids that are
+     * small for their distance across the edge of a radius are counted all together or not at all,
+     * which is only wrong for Boids within theta times the radius of that edge.  Separation is still
+     * computed exactly from the neighbor index.  The rules are then applied as the FUSED kernel does,
+     * whatever the kernel mode.
+     *
+     * @param theta - opening angle (0.5 is typical; larger is faster and less accurate), or 0 to
+     *                compute every rule exactly
+     */
+    void setBarnesHutTheta( double theta ) {
+        this.barnesHutTheta = (theta > 0.0) ? theta : 0.0;
+        this.tree = (theta > 0.0) ? new BarnesHutTree() : null;
+        this.indexStale = true;
+    }
+
     // other methods
 
     /*****************************************************************************************************
@@ -126,24 +449,66 @@ public class Flock {
      * have their new velocity, update the velocity and apply it to move each boid.
      */
     void move() {
+        prepareStep();
+        computeStep();
+        finishStep();
+    }
 
-        // create unit vectors for the current velocity and the three flocking behaviors, summing
-        // them by weights into the new velocity which is scaled by the flock's speed.
+    /**************************************************************************************************
+     * First part of move(): brings the state arrays up to date and builds the neighbor index.  A
+     * FlockWorld steps all of its flocks through each part in turn, so that every flock's new
+     * velocities are computed from the locations of the others before any of them moves.
+     */
+    void prepareStep() {
+        if ( storageMode == StorageMode.ARRAYS && reorderInterval > 0 && --ticksToReorder < 0 ) {
+            reorder();
+        }
+        buildIndex();
+        steered = false;
+    }
 
-        for( Boid b : flock ) {
-            Vector330Class newVelocity = b.getVelocity().normalize().scale( weightCurrentVelocity );
-            newVelocity.sumTo( getSeparationVector( b ).scale( weightSeparation ) );
-            newVelocity.sumTo( getAlignmentVector( b ).scale( weightAlignment ) );
-            newVelocity.sumTo( getCohesionVector( b ).scale( weightCohesion ) );
-            b.setNewVelocity( newVelocity.normalize().scale( b.getSpeed() ) );
+    /**************************************************************************************************
+     * Second part of move(): computes the new velocity of each Boid from the current state.
+     */
+    void computeStep() {
+
+        // this only reads the current state, so each Boid's new velocity can be computed independently
+
+        if ( stepPool == null ) {
+            computeNewVelocities( 0, state.count, candidates );
+        } else {
+            stepPool.invoke( new StepTask( 0, state.count, false ) );
         }
+    }
 
-        for( Boid b : flock ) {
-            b.updateVelocity();
-            b.move();
+    /**************************************************************************************************
+     * Last part of move(): makes the new velocities current and moves the Boids.
+     */
+    void finishStep() {
+        if ( stepPool == null ) {
+            integrate( 0, state.count );
+        } else {
+            stepPool.invoke( new StepTask( 0, state.count, true ) );
+        }
+        if ( storageMode == StorageMode.ARRAYS ) {
+            boidsStale = true;
         }
+        indexStale = true;
     }
 
+    /**************************************************************************************************
+     * The flat arrays of the flock's state, current after prepareStep()
+     * @return the state arrays
+     */
+    BoidArrays getState() { return this.state; }
+
+    /**************************************************************************************************
+     * Tells computeStep() to add state.steerX/steerY to each Boid's weighted sum of the flocking
+     * rules; cleared by prepareStep()
+     * @param steered - true once the steering has been filled in for this tick
+     */
+    void setSteered( boolean steered ) { this.steered = steered; }
+
     /**************************************************************************************************
      * Draws each of the Boids in the flock
      *
@@ -151,11 +516,115 @@ public class Flock {
      */
     void draw() throws Exception {
 
+        syncBoids();
         for( Boid b : flock ) {
             b.draw();
         }
     }
 
+    /**************************************************************************************************
+     * Copies the drawable state of each Boid into a snapshot, so it can be drawn on another thread
+     * while the flock moves on
+     *
+     * @param snapshot - where to copy the Boids
+     */
+    void snapshot( FlockSnapshot snapshot ) {
+
+        snapshot.flockId = id;
+        snapshot.name = name;
+        snapshot.count = flock.size();
+        snapshot.ensureCapacity( snapshot.count );
+
+        // stepped ARRAYS storage is newer than its Boids: the motion comes from each slot, put in its
+        // Boid's place in the list, and only what a step leaves alone from the Boids
+
+        if ( boidsStale ) {
+            for( int i=0; i<snapshot.count; i++ ) {
+                Boid b = flock.get( i );
+                snapshot.size[i] = b.getSize();
+                snapshot.color[i] = b.getColor();
+                snapshot.image[i] = b.getImage();
+            }
+            for( int k=0; k<state.count; k++ ) {
+                int i = state.boid[k];
+                snapshot.x[i] = state.x[k];
+                snapshot.y[i] = state.y[k];
+                snapshot.vx[i] = state.vx[k];
+                snapshot.vy[i] = state.vy[k];
+            }
+            return;
+        }
+        for( int i=0; i<snapshot.count; i++ ) {
+            Boid b = flock.get( i );
+            snapshot.x[i] = b.getLocation().getX();
+            snapshot.y[i] = b.getLocation().getY();
+            snapshot.vx[i] = b.getVelocity().getX();
+            snapshot.vy[i] = b.getVelocity().getY();
+            snapshot.size[i] = b.getSize();
+            snapshot.color[i] = b.getColor();
+            snapshot.image[i] = b.getImage();
+        }
+    }
+
+    /**************************************************************************************************
+     * Writes the flock into a Checkpoint: its name, radii, weights, modes, Morton sort schedule,
+     * Barnes-Hut opening angle, and topological neighbor count,
+     * then each attribute of every Boid in turn (x, y, vx, vy, speed, size, RGB color, movement mode),
+     * so the restore constructor reads them as whole arrays, and last the order the Boids are stored
+     * in, so the restored flock sums its neighbors in the same order.  The Boids' images are not saved.
+     *
+     * @param out - the checkpoint being written
+     * @throws IOException - if the checkpoint cannot be written
+     */
+    void save( Checkpoint.Output out ) throws IOException {
+
+        syncBoids();
+        out.putString( name );
+        out.putInt( radiusSeparation ).putInt( radiusAlignment ).putInt( radiusCohesion ).putInt( radiusEvasion );
+        out.putDouble( weightCurrentVelocity ).putDouble( weightSeparation ).putDouble( weightAlignment )
+           .putDouble( weightCohesion );
+        out.putInt( storageMode.ordinal() ).putInt( kernelMode.ordinal() ).putInt( neighborMode.ordinal() );
+        out.putInt( reorderInterval ).putInt( ticksToReorder ).putDouble( barnesHutTheta );
+        out.putInt( topologicalNeighbors );
+
+        int count = flock.size();
+        out.putInt( count );
+        double[] values = new double[count];
+        for( int attribute=0; attribute<5; attribute++ ) {
+            for( int i=0; i<count; i++ ) {
+                Boid b = flock.get( i );
+                switch ( attribute ) {
+                    case 0: values[i] = b.getLocation().getX(); break;
+                    case 1: values[i] = b.getLocation().getY(); break;
+                    case 2: values[i] = b.getVelocity().getX(); break;
+                    case 3: values[i] = b.getVelocity().getY(); break;
+                    default: values[i] = b.getSpeed(); break;
+                }
+            }
+            out.putDoubles( values, count );
+        }
+        int[] ints = new int[count];
+        for( int attribute=0; attribute<3; attribute++ ) {
+            for( int i=0; i<count; i++ ) {
+                Boid b = flock.get( i );
+                switch ( attribute ) {
+                    case 0: ints[i] = b.getSize(); break;
+                    case 1: ints[i] = b.getColor().getRGB(); break;
+                    default: ints[i] = b.getMovementMode().ordinal(); break;
+                }
+            }
+            out.putInts( ints, count );
+        }
+        int[] order = state.getOrder();
+        if ( order == null || order.length != count ) {
+            for( int i=0; i<count; i++ ) {
+                ints[i] = i;
+            }
+            order = ints;
+        }
+        out.putInts( order, count );
+    }
+
     /**************************************************************************************************
      * Invokes the evade behavior moving each Boid in the flock that is close enough (radiusEvasion)
      * to the disruption point to move directly away from that point
@@ -164,37 +633,218 @@ public class Flock {
      * @param y - y coordinate of the disfuption point
      */
     void evade( int x, int y ) {
+        pointX[0] = x;
+        pointY[0] = y;
+        evade( pointX, pointY, 1 );
+    }
 
-        for( Boid b : flock ) {
-            b.evade( x, y, this.radiusEvasion );
+    /**************************************************************************************************
+     * Invokes the evade behavior for several disruption points in turn, with the same result as
+     * calling evade(x, y) for each of them in order.  The Boids near each point are found with a
+     * radius query on the neighbor index instead of by checking every Boid; Boids already moved by an
+     * earlier point are no longer where the index has them, so they are checked directly.  Called
+     * between prepareStep() and computeStep(), this reuses the index built for the step and leaves
+     * it ready for the step.
+     *
+     * @param xs - x coordinates of the disruption points
+     * @param ys - y coordinates of the disruption points
+     * @param points - number of disruption points
+     */
+    void evade( int[] xs, int[] ys, int points ) {
+        if ( points == 0 ) {
+            return;
+        }
+        if ( indexStale || arraysStale ) {
+            buildIndex();
+        }
+        index.prepareWideQueries();
+        if ( evadedFlag.length < state.count ) {
+            evaded = new int[state.count];
+            evadedFlag = new boolean[state.count];
+        }
+
+        int moved = 0;
+        for( int p=0; p<points; p++ ) {
+            int earlier = moved;
+            int count = index.queryPoint( xs[p], ys[p], radiusEvasion, candidates );
+            for( int c=0; c<count; c++ ) {
+                int i = candidates[c];
+                if ( !evadedFlag[i] && evadeOne( i, xs[p], ys[p] ) ) {
+                    evadedFlag[i] = true;
+                    evaded[moved++] = i;
+                }
+            }
+            for( int m=0; m<earlier; m++ ) {
+                evadeOne( evaded[m], xs[p], ys[p] );
+            }
+        }
+        for( int m=0; m<moved; m++ ) {
+            evadedFlag[evaded[m]] = false;
+        }
+
+        // bring the arrays and the index up to date with the moved Boids, so a step can follow directly
+
+        if ( moved > 0 ) {
+            if ( storageMode == StorageMode.ARRAYS ) {
+                boidsStale = true;
+            } else {
+                for( int m=0; m<moved; m++ ) {
+                    Boid b = flock.get( evaded[m] );
+                    state.x[evaded[m]] = b.getLocation().getX();
+                    state.y[evaded[m]] = b.getLocation().getY();
+                }
+            }
+            index.build( state.x, state.y, state.count, indexRadius() );
+            prepareTopological();
+            buildTree();
         }
     }
 
     // private helper functions
 
+    /*************************************************************************************
+     * Computes the new velocity for Boids [from, to) by creating unit vectors for the current
+     * velocity and the three flocking behaviors, summing them by weights into the new velocity
+     * which is scaled by the flock's speed.
+     *
+     * @param from - first Boid
+     * @param to - one past the last Boid
+     * @param cand - candidate neighbor buffer owned by the calling thread
+     */
+    private void computeNewVelocities( int from, int to, int[] cand ) {
+
+        boolean arrays = (storageMode == StorageMode.ARRAYS);
+        VectorScratch scratch = VectorScratch.current();
+        BarnesHutTree.Sums sums = WORKER_SUMS.get();
+        KNearest nearest = WORKER_NEAREST.get();
+        for( int i=from; i<to; i++ ) {
+            if ( topologicalNeighbors > 0 ) {
+                topologicalNewVelocity( i, cand, nearest );
+                if ( !arrays ) {
+                    flock.get( i ).setNewVelocity( state.nvx[i], state.nvy[i] );
+                }
+                continue;
+            }
+            if ( tree != null ) {
+                int count = index.queryNeighbors( i, radiusSeparation, cand );
+                approximateNewVelocity( i, cand, count, sums );
+                if ( !arrays ) {
+                    flock.get( i ).setNewVelocity( state.nvx[i], state.nvy[i] );
+                }
+                continue;
+            }
+            int count = index.queryNeighbors( i, maxRadius(), cand );
+            if ( arrays ) {
+                fusedNewVelocity( i, cand, count );
+                continue;
+            }
+            Boid b = flock.get( i );
+            if ( kernelMode == KernelMode.FUSED ) {
+                fusedNewVelocity( i, cand, count );
+                b.setNewVelocity( state.nvx[i], state.nvy[i] );
+                continue;
+            }
+            int mark = scratch.mark();
+            Vector330Class newVelocity = scratch.take().set( b.getVelocity() ).normalizeInPlace().scaleInPlace( weightCurrentVelocity );
+            newVelocity.sumTo( getSeparationVector( b, cand, count, scratch ).scaleInPlace( weightSeparation ) );
+            newVelocity.sumTo( getAlignmentVector( b, cand, count, scratch ).scaleInPlace( weightAlignment ) );
+            newVelocity.sumTo( getCohesionVector( b, cand, count, scratch ).scaleInPlace( weightCohesion ) );
+            if ( steered ) {
+                newVelocity.sumTo( scratch.take().set( state.steerX[i], state.steerY[i] ) );
+            }
+            b.setNewVelocity( newVelocity.normalizeInPlace().scaleInPlace( b.getSpeed() ) );
+            scratch.release( mark );
+        }
+    }
+
+    /*************************************************************************************
+     * Makes the new velocity current and moves Boids [from, to).
+     *
+     * @param from - first Boid
+     * @param to - one past the last Boid
+     */
+    private void integrate( int from, int to ) {
+        if ( storageMode == StorageMode.ARRAYS ) {
+            state.integrate( from, to, Boid.getScreenWidth(), Boid.getScreenHeight() );
+        } else {
+            for( int i=from; i<to; i++ ) {
+                Boid b = flock.get( i );
+                b.updateVelocity();
+                b.move();
+            }
+        }
+    }
+
+    /*************************************************************************************
+     * StepTask splits a range of Boids in half until it is small enough, then runs one of
+     * the two phases of move() over it.
+     */
+    private class StepTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final boolean integrate;
+
+        StepTask( int from, int to, boolean integrate ) {
+            this.from = from;
+            this.to = to;
+            this.integrate = integrate;
+        }
+
+        @Override
+        protected void compute() {
+            if ( to - from <= PARALLEL_GRAIN ) {
+                if ( integrate ) {
+                    integrate( from, to );
+                } else {
+                    int[] cand = WORKER_CANDIDATES.get();
+                    if ( cand.length < state.count ) {
+                        cand = new int[state.count];
+                        WORKER_CANDIDATES.set( cand );
+                    }
+                    computeNewVelocities( from, to, cand );
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll( new StepTask( from, mid, integrate ), new StepTask( mid, to, integrate ) );
+            }
+        }
+    }
+
     /*************************************************************************************
      * Calculates the separation unit vector so the current Boid does not encrotch upon
      * its nearest neighbors (those within radiusSeparation)
      *
      * @param b current boid
+     * @param cand candidate neighbors of b
+     * @param count number of candidates
+     * @param scratch source of the temporary vectors, including the one returned
      * @return a normalized vector pointing away from the neighbors
      */
-    private Vector330Class getSeparationVector( Boid b ) {
+    private Vector330Class getSeparationVector( Boid b, int[] cand, int count, VectorScratch scratch ) {
 
-        Vector330Class sv = new Vector330Class();
+        Vector330Class sv = scratch.take().set( 0.0, 0.0 );
+        Vector330Class difVector = scratch.take();
 
-        for( Boid other : this.flock ) {
+        for( int c=0; c<count; c++ ) {
+            Boid other = this.flock.get( cand[c] );
 
             if ( distance( b, other ) < radiusSeparation ) {
 
-                Vector330Class difVector = b.getLocation().subtract( other.getLocation()).normalize();
+                b.getLocation().subtractInto( other.getLocation(), difVector );
+                if ( b.getMovementMode() == MoveMode.WRAP ) {
+                    wrapInPlace( difVector );
+                }
+                difVector.normalizeInPlace();
 
                 // closer locations -> more repulsion
 
-                sv.sumTo( difVector.scale( radiusSeparation - difVector.magnitude() ));
+                sv.sumTo( difVector.scaleInPlace( radiusSeparation - difVector.magnitude() ));
             }
         }
-        return sv.normalize();
+        return sv.normalizeInPlace();
     }
 
     /*************************************************************************************
@@ -202,18 +852,22 @@ public class Flock {
      * neighbors (within radiusAlignment) of itself
      *
      * @param b current Boid
+     * @param cand candidate neighbors of b
+     * @param count number of candidates
+     * @param scratch source of the temporary vectors, including the one returned
      * @return a normalized vector in the average direction of Boid b's neighbors
      */
-    private Vector330Class getAlignmentVector( Boid b ) {
-        Vector330Class av = new Vector330Class();
+    private Vector330Class getAlignmentVector( Boid b, int[] cand, int count, VectorScratch scratch ) {
+        Vector330Class av = scratch.take().set( 0.0, 0.0 );
 
-         for( Boid other : this.flock ) {
+        for( int c=0; c<count; c++ ) {
+            Boid other = this.flock.get( cand[c] );
 
             if ( distance( b, other) < radiusAlignment ) {
                 av.sumTo( other.getVelocity() );
             }
         }
-        return av.normalize();  // will never be <0,0> as b is its own neighbor
+        return av.normalizeInPlace();  // will never be <0,0> as b is its own neighbor
     }
 
 
@@ -222,42 +876,495 @@ public class Flock {
      * and then creates a unit cohesion vector to that point
      *
      * @param b - the current Boid object being considered
+     * @param cand - candidate neighbors of b
+     * @param count - number of candidates
+     * @param scratch - source of the temporary vectors, including the one returned
      * @return the unit cohesion vector
      */
-    private Vector330Class getCohesionVector( Boid b ) {
+    private Vector330Class getCohesionVector( Boid b, int[] cand, int count, VectorScratch scratch ) {
 
-        Vector330Class cv = new Vector330Class();
+        Vector330Class cv = scratch.take().set( 0.0, 0.0 );
+        Vector330Class image = scratch.take();
+        boolean wrap = (b.getMovementMode() == MoveMode.WRAP);
 
         int neighbors = 0;
 
-        for( Boid other : this.flock ) {
+        for( int c=0; c<count; c++ ) {
+            Boid other = this.flock.get( cand[c] );
 
             if ( distance( b, other ) < radiusCohesion ) {
-                cv.sumTo( other.getLocation() );
+                if ( wrap ) {
+
+                    // the nearest image of the other Boid, which may be across an edge
+
+                    b.getLocation().subtractInto( other.getLocation(), image );
+                    wrapInPlace( image );
+                    b.getLocation().subtractInto( image, image );
+                    cv.sumTo( image );
+                } else {
+                    cv.sumTo( other.getLocation() );
+                }
                 neighbors++;
             }
         }
 
-        Vector330Class avgLocation = cv.scale( 1.0 / (double) neighbors );
+        Vector330Class avgLocation = cv.scaleInPlace( 1.0 / (double) neighbors );
 
-        return avgLocation.subtract( b.getLocation() ).normalize();
+        return avgLocation.subtractInto( b.getLocation(), avgLocation ).normalizeInPlace();
     }
 
     /*************************************************************************************
-     * Calculates the Eucleadean distance between the locations of Boids a and b.
+     * Computes the new velocity of Boid b (at index i) in a single pass over its candidate
+     * neighbors.  The squared distance to each candidate is computed once and compared
+     * against the square of each rule's radius, so no vectors are created per neighbor.
+     *
+     * @param i - index of the Boid in the flock; its new velocity is left in state.nvx/nvy
+     * @param cand - candidate neighbors of the Boid
+     * @param count - number of candidates
+     */
+    private void fusedNewVelocity( int i, int[] cand, int count ) {
+
+        double[] xs = state.x;
+        double[] ys = state.y;
+        double[] vxs = state.vx;
+        double[] vys = state.vy;
+        double bx = xs[i];
+        double by = ys[i];
+        double sepSq = (double) radiusSeparation * radiusSeparation;
+        double alignSq = (double) radiusAlignment * radiusAlignment;
+        double cohSq = (double) radiusCohesion * radiusCohesion;
+        boolean wrap = state.wrap[i];
+        double width = Boid.getScreenWidth();
+        double height = Boid.getScreenHeight();
+
+        double sx = 0.0, sy = 0.0;  // separation
+        double ax = 0.0, ay = 0.0;  // alignment
+        double cx = 0.0, cy = 0.0;  // cohesion
+        int neighbors = 0;
+
+        for( int c=0; c<count; c++ ) {
+            int j = cand[c];
+            double dx = bx - xs[j];
+            double dy = by - ys[j];
+            if ( wrap ) {
+                dx = wrapDelta( dx, width );
+                dy = wrapDelta( dy, height );
+            }
+            double distSq = dx * dx + dy * dy;
+
+            if ( distSq < sepSq ) {
+                double dist = Math.sqrt( distSq );
+                if ( dist > EPS ) {
+
+                    // unit vector away from the neighbor scaled by (radius - 1), as in getSeparationVector()
+
+                    double w = (radiusSeparation - 1.0) / dist;
+                    sx += dx * w;
+                    sy += dy * w;
+                }
+            }
+            if ( distSq < alignSq ) {
+                ax += vxs[j];
+                ay += vys[j];
+            }
+            if ( distSq < cohSq ) {
+                cx += wrap ? bx - dx : xs[j];   // the nearest image of the neighbor
+                cy += wrap ? by - dy : ys[j];
+                neighbors++;
+            }
+        }
+
+        finishNewVelocity( i, sx, sy, ax, ay, cx, cy, neighbors );
+    }
+
+    /*************************************************************************************
+     * Computes the new velocity of the Boid at index i like fusedNewVelocity(), but with
+     * separation from its candidate neighbors and alignment and cohesion from the
+     * Barnes-Hut tree
+     *
+     * @param i - index of the Boid in the flock; its new velocity is left in state.nvx/nvy
+     * @param cand - candidate neighbors within radiusSeparation of the Boid
+     * @param count - number of candidates
+     * @param sums - totals buffer owned by the calling thread
+     */
+    private void approximateNewVelocity( int i, int[] cand, int count, BarnesHutTree.Sums sums ) {
+
+        double[] xs = state.x;
+        double[] ys = state.y;
+        double bx = xs[i];
+        double by = ys[i];
+        double sepSq = (double) radiusSeparation * radiusSeparation;
+        boolean wrap = state.wrap[i];
+        double width = Boid.getScreenWidth();
+        double height = Boid.getScreenHeight();
+
+        double sx = 0.0, sy = 0.0;
+        for( int c=0; c<count; c++ ) {
+            int j = cand[c];
+            double dx = bx - xs[j];
+            double dy = by - ys[j];
+            if ( wrap ) {
+                dx = wrapDelta( dx, width );
+                dy = wrapDelta( dy, height );
+            }
+            double distSq = dx * dx + dy * dy;
+            if ( distSq < sepSq ) {
+                double dist = Math.sqrt( distSq );
+                if ( dist > EPS ) {
+                    double w = (radiusSeparation - 1.0) / dist;
+                    sx += dx * w;
+                    sy += dy * w;
+                }
+            }
+        }
+
+        // one walk of the tree serves both rules when their radii are the same
+
+        sums.clear();
+        tree.gather( bx, by, radiusAlignment, wrap, barnesHutTheta, sums );
+        double ax = sums.vx;
+        double ay = sums.vy;
+        if ( radiusCohesion != radiusAlignment ) {
+            sums.clear();
+            tree.gather( bx, by, radiusCohesion, wrap, barnesHutTheta, sums );
+        }
+        finishNewVelocity( i, sx, sy, ax, ay, sums.x, sums.y, sums.count );
+    }
+
+    /*************************************************************************************
+     * Computes the new velocity of the Boid at index i like fusedNewVelocity(), but over
+     * its topologicalNeighbors nearest flockmates rather than the flockmates within the
+     * radii.  The search radius starts at the Boid's distance to its k-th nearest last tick,
+     * plus the distance two Boids can close in a tick, and doubles until the k nearest
+     * candidates lie within it (so no Boid outside it can be nearer) or every Boid is a
+     * candidate.  Distance ties go to the lower index and the k are summed in index order,
+     * so the result does not depend on the search radius or the neighbor index.
+     *
+     * @param i - index of the Boid in the flock; its new velocity is left in state.nvx/nvy
+     * @param cand - candidate neighbor buffer owned by the calling thread
+     * @param nearest - k-nearest heap owned by the calling thread
+     */
+    private void topologicalNewVelocity( int i, int[] cand, KNearest nearest ) {
+
+        double[] xs = state.x;
+        double[] ys = state.y;
+        double bx = xs[i];
+        double by = ys[i];
+        double sepSq = (double) radiusSeparation * radiusSeparation;
+        boolean wrap = state.wrap[i];
+        double width = Boid.getScreenWidth();
+        double height = Boid.getScreenHeight();
+        double widest = 2.0 * (width + height);
+
+        double r = (state.reach[i] > 0.0) ? state.reach[i] + 2.0 * state.speed[i] : Math.max( 1, radiusSeparation );
+        while ( true ) {
+            int count = index.queryNeighbors( i, r, cand );
+            nearest.clear( topologicalNeighbors );
+            for( int c=0; c<count; c++ ) {
+                int j = cand[c];
+                if ( j != i ) {
+                    double dx = bx - xs[j];
+                    double dy = by - ys[j];
+                    if ( wrap ) {
+                        dx = wrapDelta( dx, width );
+                        dy = wrapDelta( dy, height );
+                    }
+                    nearest.offer( dx * dx + dy * dy, j );
+                }
+            }
+            if ( (nearest.isFull() && nearest.farthest() <= r * r) || count == state.count || r > widest ) {
+                break;
+            }
+            r *= 2.0;
+        }
+        state.reach[i] = (nearest.size() > 0) ? Math.sqrt( nearest.farthest() ) : 0.0;
+
+        // the Boid counts toward its own alignment and cohesion, as it does under the radius rules
+
+        int count = nearest.indices( cand );
+        double sx = 0.0, sy = 0.0;
+        double ax = state.vx[i], ay = state.vy[i];
+        double cx = bx, cy = by;
+        for( int c=0; c<count; c++ ) {
+            int j = cand[c];
+            double dx = bx - xs[j];
+            double dy = by - ys[j];
+            if ( wrap ) {
+                dx = wrapDelta( dx, width );
+                dy = wrapDelta( dy, height );
+            }
+            double distSq = dx * dx + dy * dy;
+            if ( distSq < sepSq ) {
+                double dist = Math.sqrt( distSq );
+                if ( dist > EPS ) {
+                    double w = (radiusSeparation - 1.0) / dist;
+                    sx += dx * w;
+                    sy += dy * w;
+                }
+            }
+            ax += state.vx[j];
+            ay += state.vy[j];
+            cx += bx - dx;      // the nearest image of a wrapping Boid's neighbor
+            cy += by - dy;
+        }
+        finishNewVelocity( i, sx, sy, ax, ay, cx, cy, count + 1 );
+    }
+
+    /*************************************************************************************
+     * Combines the sums of the three rules for the Boid at index i into its new velocity
+     *
+     * @param i - index of the Boid; its new velocity is left in state.nvx/nvy
+     * @param sx - separation sum
+     * @param sy - separation sum
+     * @param ax - sum of the velocities of the neighbors within radiusAlignment
+     * @param ay - sum of the velocities of the neighbors within radiusAlignment
+     * @param cx - sum of the locations of the neighbors within radiusCohesion
+     * @param cy - sum of the locations of the neighbors within radiusCohesion
+     * @param neighbors - number of neighbors within radiusCohesion
+     */
+    private void finishNewVelocity( int i, double sx, double sy, double ax, double ay, double cx, double cy,
+                                    int neighbors ) {
+
+        double[] vxs = state.vx;
+        double[] vys = state.vy;
+        double bx = state.x[i];
+        double by = state.y[i];
+
+        // weighted sum of the unit vectors, in the same order as the SEPARATE kernel
+
+        double m = Math.sqrt( vxs[i] * vxs[i] + vys[i] * vys[i] );
+        double nx = 0.0, ny = 0.0;
+        if ( m > EPS ) {
+            nx = vxs[i] / m * weightCurrentVelocity;
+            ny = vys[i] / m * weightCurrentVelocity;
+        }
+        m = Math.sqrt( sx * sx + sy * sy );
+        if ( m > EPS ) {
+            nx += sx / m * weightSeparation;
+            ny += sy / m * weightSeparation;
+        }
+        m = Math.sqrt( ax * ax + ay * ay );
+        if ( m > EPS ) {
+            nx += ax / m * weightAlignment;
+            ny += ay / m * weightAlignment;
+        }
+        if ( neighbors > 0 ) {
+            cx = cx / neighbors - bx;
+            cy = cy / neighbors - by;
+            m = Math.sqrt( cx * cx + cy * cy );
+            if ( m > EPS ) {
+                nx += cx / m * weightCohesion;
+                ny += cy / m * weightCohesion;
+            }
+        }
+        if ( steered ) {
+            nx += state.steerX[i];
+            ny += state.steerY[i];
+        }
+        m = Math.sqrt( nx * nx + ny * ny );
+        if ( m > EPS ) {
+            nx = nx / m * state.speed[i];
+            ny = ny / m * state.speed[i];
+        } else {
+            nx = 0.0;
+            ny = 0.0;
+        }
+        state.nvx[i] = nx;
+        state.nvy[i] = ny;
+    }
+
+    /*************************************************************************************
+     * Moves Boid i away from a disruption point, in the Boid itself or in the arrays
+     * depending on where the flock's state lives
+     *
+     * @param i - index of the Boid
+     * @param x - x coordinate of the disruption point
+     * @param y - y coordinate of the disruption point
+     * @return true if the Boid was close enough to move
+     */
+    private boolean evadeOne( int i, int x, int y ) {
+        if ( storageMode == StorageMode.ARRAYS ) {
+            return state.evade( i, x, y, radiusEvasion, Boid.getScreenWidth(), Boid.getScreenHeight() );
+        }
+        return flock.get( i ).evade( x, y, radiusEvasion );
+    }
+
+    /*************************************************************************************
+     * Brings the flat arrays up to date with the Boids (every tick for OBJECTS storage,
+     * only after an edit for ARRAYS storage) and rebuilds the neighbor index over them.
+     */
+    private void buildIndex() {
+        if ( storageMode == StorageMode.OBJECTS || arraysStale ) {
+            state.load( flock, storageMode == StorageMode.ARRAYS );
+            arraysStale = false;
+        }
+        if ( candidates.length < state.count ) {
+            candidates = new int[state.count];
+        }
+        if ( state.anyWrap ) {
+            index.setPeriod( Boid.getScreenWidth(), Boid.getScreenHeight() );
+        } else {
+            index.setPeriod( 0.0, 0.0 );
+        }
+        index.build( state.x, state.y, state.count, indexRadius() );
+        prepareTopological();
+        buildTree();
+        indexStale = false;
+    }
+
+    /*************************************************************************************
+     * Readies the index for the topological search, whose widening queries go past the
+     * radius it was built for, before the step pool's workers query it all at once
+     */
+    private void prepareTopological() {
+        if ( topologicalNeighbors > 0 ) {
+            index.prepareWideQueries();
+        }
+    }
+
+    /*************************************************************************************
+     * Rebuilds the Barnes-Hut tree, if there is one, over the state arrays
+     */
+    private void buildTree() {
+        if ( tree != null && topologicalNeighbors == 0 ) {
+            if ( state.anyWrap ) {
+                tree.setPeriod( Boid.getScreenWidth(), Boid.getScreenHeight() );
+            } else {
+                tree.setPeriod( 0.0, 0.0 );
+            }
+            tree.build( state.x, state.y, state.vx, state.vy, state.count );
+        }
+    }
+
+    /*************************************************************************************
+     * Sorts ARRAYS storage into Morton order, loading it first if the Boids were edited
+     */
+    private void reorder() {
+        if ( arraysStale ) {
+            state.load( flock, true );
+            arraysStale = false;
+        }
+        state.sortByMorton( Boid.getScreenWidth(), Boid.getScreenHeight() );
+        ticksToReorder = reorderInterval - 1;
+        indexStale = true;
+    }
+
+    /*************************************************************************************
+     * Copies the stepped arrays back into the Boids before anything reads or edits them.
+     */
+    private void syncBoids() {
+        if ( boidsStale ) {
+            state.store( flock );
+            boidsStale = false;
+        }
+    }
+
+    /*************************************************************************************
+     * @return the mode with the given ordinal, read from a Checkpoint
+     */
+    private static <E extends Enum<E>> E mode( E[] modes, int ordinal ) throws IOException {
+        if ( ordinal < 0 || ordinal >= modes.length ) {
+            throw new IOException( "corrupt checkpoint: no " + modes[0].getDeclaringClass().getSimpleName() +
+                                   " " + ordinal );
+        }
+        return modes[ordinal];
+    }
+
+    /*************************************************************************************
+     * @return a slot order read from a Checkpoint, or null for list order
+     * @throws IOException - if it is not a permutation of the Boids
+     */
+    private static int[] checkOrder( int[] order ) throws IOException {
+        boolean[] seen = new boolean[order.length];
+        boolean listOrder = true;
+        for( int i=0; i<order.length; i++ ) {
+            int b = order[i];
+            if ( b < 0 || b >= order.length || seen[b] ) {
+                throw new IOException( "corrupt checkpoint: Boid order" );
+            }
+            seen[b] = true;
+            listOrder &= (b == i);
+        }
+        return listOrder ? null : order;
+    }
+
+    /*************************************************************************************
+     * @return the radius the neighbor index is sized for: in topological mode about the
+     *         mean distance to the k-th nearest flockmate, otherwise the largest radius it
+     *         is queried with each step, only the separation radius when the Barnes-Hut
+     *         tree does alignment and cohesion.  The topological radius is set half again
+     *         above the mean and then held until the mean leaves [radius/2, radius], so it
+     *         changes only when the flock's density does and VERLET lists, which are
+     *         rebuilt whenever the radius changes, are still reused from tick to tick.
+     */
+    private int indexRadius() {
+        if ( topologicalNeighbors > 0 ) {
+            double sum = 0.0;
+            for( int i=0; i<state.count; i++ ) {
+                sum += state.reach[i];
+            }
+            if ( sum == 0.0 ) {
+                return (topologicalRadius > 0) ? topologicalRadius : maxRadius();
+            }
+            double mean = sum / state.count;
+            if ( mean > topologicalRadius || 2.0 * mean < topologicalRadius ) {
+                topologicalRadius = Math.max( 1, (int) Math.ceil( 1.5 * mean ) );
+            }
+            return topologicalRadius;
+        }
+        return (tree != null) ? radiusSeparation : maxRadius();
+    }
+
+    /*************************************************************************************
+     * @return the largest of the separation, alignment, and cohesion radii
+     */
+    private int maxRadius() {
+        return Math.max( radiusSeparation, Math.max( radiusAlignment, radiusCohesion ) );
+    }
+
+    /*************************************************************************************
+     * Calculates the Eucleadean distance between the locations of Boids a and b.  If a
+     * wraps around the edges of the world, this is the distance to the nearest image of b
+     * (the world is a torus), so Boids near opposite edges are neighbors.
      *
      * @param a - first Boid
      * @param b - second Boid
      * @return the distance between the locations of Boids a and b
      */
     private double distance( Boid a, Boid b ) {
-        return a.getLocation().subtract( b.getLocation() ).magnitude();
+        if ( a.getMovementMode() != MoveMode.WRAP ) {
+            return a.getLocation().distance( b.getLocation() );
+        }
+        double dx = wrapDelta( a.getLocation().getX() - b.getLocation().getX(), Boid.getScreenWidth() );
+        double dy = wrapDelta( a.getLocation().getY() - b.getLocation().getY(), Boid.getScreenHeight() );
+        return Math.sqrt( dx * dx + dy * dy );
+    }
+
+    /*************************************************************************************
+     * Replaces a difference of two locations with the shortest equivalent difference on
+     * the torus the world wraps into
+     *
+     * @param d - difference of two locations, changed in place
+     */
+    private static void wrapInPlace( Vector330Class d ) {
+        d.set( wrapDelta( d.getX(), Boid.getScreenWidth() ), wrapDelta( d.getY(), Boid.getScreenHeight() ) );
+    }
+
+    /*************************************************************************************
+     * @param d - difference of two coordinates
+     * @param period - size of the world along that coordinate
+     * @return the difference equivalent to d modulo the period that is closest to zero
+     */
+    static double wrapDelta( double d, double period ) {
+        return d - period * Math.rint( d / period );
     }
 
     /**
      * chgEdgeMode() - support function for switchEdgeMode()
      */
     public void chgEdgeMode() {
+        syncBoids();
+        arraysStale = true;
         for (Boid b : this.flock) {
             if (b.getMovementMode() == MoveMode.BOUNCE) {
                 b.setMovementMode(MoveMode.WRAP);
@@ -281,6 +1388,8 @@ public class Flock {
         setRadiusAlignment(alignRad);
         setRadiusCohesion(cohRad);
         setRadiusSeparation(sepRad);
+        syncBoids();
+        arraysStale = true;
         //Set the following properties for each boid the flock
         for(Boid b : this.flock) {
             b.setColor(c);
@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*******************************************************************************************************************
+ * FlockInteractions steers Boids toward or away from the Boids of other flocks, so raptors can chase birds and
+ * birds can flee raptors.  Flocks are told apart by name (their species), so every flock named "Raptors" chases
+ * every flock named "Birds" however many of each are added.
+ *
+ * Each tick the locations of every flock are copied into one array and one shared SpatialGrid is built over them,
+ * with a layer per flock, so finding the Boids of another flock near a Boid visits only that flock's Boids in
+ * the nearby cells and the total cost stays near-linear in the number of Boids as species are added.  For each
+ * rule, a Boid gets a unit vector toward (positive weight) or away from (negative weight) the average location of
+ * the other species' Boids within the rule's radius, scaled by the weight; the flock adds the sum of these to the
+ * weighted sum of its own flocking rules.
+ *
+ * The grid is only read once built, so a flock with a step pool has its Boids steered on that pool, as its
+ * computeStep() does.
+ */
+class FlockInteractions {
+
+    private static final double EPS = 1.0E-09;
+
+    // candidate buffers for the worker threads of a flock's step pool
+    private static final ThreadLocal<int[]> WORKER_CANDIDATES = ThreadLocal.withInitial( () -> new int[0] );
+
+    /**
+     * Rule is one species' reaction to another
+     */
+    private static final class Rule {
+        final String subject;
+        final String other;
+        final double radius;
+        final double weight;
+
+        Rule( String subject, String other, double radius, double weight ) {
+            this.subject = subject;
+            this.other = other;
+            this.radius = radius;
+            this.weight = weight;
+        }
+    }
+
+    private final ArrayList<Rule> rules = new ArrayList<>();
+
+    // per-tick buffers, reused from one tick to the next
+
+    private final SpatialGrid grid = new SpatialGrid();
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private int[] owner = new int[0];        // flock of each entry of x and y
+    private int[] candidates = new int[0];
+    private int[] start = new int[0];        // first entry of each flock in x and y
+    private double[] weight = new double[0]; // weight[a * flocks + b] is flock a's reaction to flock b
+    private double[] radius = new double[0];
+    private double[] reach = new double[0];  // largest rule radius of each flock, 0 if it has no rules
+
+    /**
+     * FlockInteractions constructor with no rules
+     */
+    FlockInteractions() {
+    }
+
+    /**
+     * Restore constructor that reads the rules written by save() from a Checkpoint
+     * @param in the checkpoint being read
+     * @throws IOException if the checkpoint cannot be read
+     */
+    FlockInteractions( Checkpoint.Input in ) throws IOException {
+        int n = in.getCount( 24 );
+        for( int i=0; i<n; i++ ) {
+            String subject = in.getString();
+            String other = in.getString();
+            double radius = in.getDouble();
+            double weight = in.getDouble();
+            setRule( subject, other, radius, weight );
+        }
+    }
+
+    /**
+     * save() - writes the rules into a Checkpoint: their number, then each rule's subject and other species
+     * and its radius and weight
+     * @param out the checkpoint being written
+     * @throws IOException if the checkpoint cannot be written
+     */
+    void save( Checkpoint.Output out ) throws IOException {
+        out.putInt( rules.size() );
+        for( Rule r : rules ) {
+            out.putString( r.subject ).putString( r.other ).putDouble( r.radius ).putDouble( r.weight );
+        }
+    }
+
+    /**
+     * setRule() - sets how Boids of the subject species react to Boids of the other species, replacing any
+     * earlier rule for the pair
+     * @param subject name of the flocks that react
+     * @param other name of the flocks they react to
+     * @param radius how near the other Boids must be
+     * @param weight positive to move toward them, negative to move away, 0 to remove the rule
+     */
+    void setRule( String subject, String other, double radius, double weight ) {
+        rules.removeIf( r -> r.subject.equals( subject ) && r.other.equals( other ) );
+        if ( weight != 0.0 && radius > 0.0 ) {
+            rules.add( new Rule( subject, other, radius, weight ) );
+        }
+    }
+
+    /*****************************************************************************************************************
+     * Computes the steering of every Boid of every flock with rules.  Each flock must have had prepareStep()
+     * called this tick, so its state arrays hold the current locations.
+     *
+     * @param flocks the flocks of the world
+     */
+    void apply( ArrayList<Flock> flocks ) {
+
+        int n = flocks.size();
+        if ( rules.isEmpty() || !resolveRules( flocks ) ) {
+            return;
+        }
+
+        // one array of every flock's locations, and the shared index over it
+
+        int total = 0;
+        boolean anyWrap = false;
+        double maxReach = 0.0;
+        for( int a=0; a<n; a++ ) {
+            BoidArrays s = flocks.get( a ).getState();
+            start[a] = total;
+            total += s.count;
+            anyWrap |= s.anyWrap;
+            maxReach = Math.max( maxReach, reach[a] );
+        }
+        if ( x.length < total ) {
+            x = new double[total];
+            y = new double[total];
+            owner = new int[total];
+            candidates = new int[total];
+        }
+        for( int a=0; a<n; a++ ) {
+            BoidArrays s = flocks.get( a ).getState();
+            System.arraycopy( s.x, 0, x, start[a], s.count );
+            System.arraycopy( s.y, 0, y, start[a], s.count );
+            for( int i=0; i<s.count; i++ ) {
+                owner[start[a] + i] = a;
+            }
+        }
+        if ( anyWrap ) {
+            grid.setPeriod( Boid.getScreenWidth(), Boid.getScreenHeight() );
+        } else {
+            grid.setPeriod( 0.0, 0.0 );
+        }
+        grid.setLayers( owner, n );
+        grid.build( x, y, total, maxReach );
+
+        for( int a=0; a<n; a++ ) {
+            if ( reach[a] > 0.0 ) {
+                steer( flocks.get( a ), a, n );
+            }
+        }
+    }
+
+    // private helper functions
+
+    /*************************************************************************************
+     * Turns the rules into a weight and radius for each pair of current flocks
+     * @return false if no current flock has a rule
+     */
+    private boolean resolveRules( ArrayList<Flock> flocks ) {
+        int n = flocks.size();
+        if ( start.length < n ) {
+            start = new int[n];
+            reach = new double[n];
+        }
+        if ( weight.length < n * n ) {
+            weight = new double[n * n];
+            radius = new double[n * n];
+        }
+        boolean any = false;
+        for( int a=0; a<n; a++ ) {
+            reach[a] = 0.0;
+            String subject = flocks.get( a ).getName();
+            for( int b=0; b<n; b++ ) {
+                weight[a * n + b] = 0.0;
+                radius[a * n + b] = 0.0;
+                String other = flocks.get( b ).getName();
+                for( Rule r : rules ) {
+                    if ( r.subject.equals( subject ) && r.other.equals( other ) ) {
+                        weight[a * n + b] = r.weight;
+                        radius[a * n + b] = r.radius;
+                        reach[a] = Math.max( reach[a], r.radius );
+                        any = true;
+                    }
+                }
+            }
+        }
+        return any;
+    }
+
+    /*************************************************************************************
+     * Fills in the steering of each Boid of flock a, on the flock's step pool if it has
+     * one, and tells the flock to use it
+     */
+    private void steer( Flock flock, int a, int n ) {
+        BoidArrays s = flock.getState();
+        ForkJoinPool pool = flock.getStepPool();
+        if ( pool == null ) {
+            steer( s, a, n, 0, s.count, candidates );
+        } else {
+            pool.invoke( new SteerTask( s, a, n, 0, s.count ) );
+        }
+        flock.setSteered( true );
+    }
+
+    /*************************************************************************************
+     * Fills in the steering of Boids [from, to) of flock a
+     *
+     * @param s - state arrays of flock a
+     * @param a - index of the flock
+     * @param n - number of flocks
+     * @param from - first Boid
+     * @param to - one past the last Boid
+     * @param cand - buffer for the candidates, one per thread
+     */
+    private void steer( BoidArrays s, int a, int n, int from, int to, int[] cand ) {
+        double width = Boid.getScreenWidth();
+        double height = Boid.getScreenHeight();
+
+        for( int i=from; i<to; i++ ) {
+            int self = start[a] + i;
+            double sx = 0.0;
+            double sy = 0.0;
+
+            for( int b=0; b<n; b++ ) {
+                double w = weight[a * n + b];
+                if ( w == 0.0 ) {
+                    continue;
+                }
+
+                // the offsets to flock b's Boids within the rule's radius
+
+                double r = radius[a * n + b];
+                int count = grid.queryLayer( self, r, b, cand );
+                double ox = 0.0;
+                double oy = 0.0;
+                for( int c=0; c<count; c++ ) {
+                    int j = cand[c];
+                    if ( j == self ) {
+                        continue;
+                    }
+                    double dx = x[j] - x[self];
+                    double dy = y[j] - y[self];
+                    if ( s.wrap[i] ) {
+                        dx = Flock.wrapDelta( dx, width );
+                        dy = Flock.wrapDelta( dy, height );
+                    }
+                    if ( dx * dx + dy * dy < r * r ) {
+                        ox += dx;
+                        oy += dy;
+                    }
+                }
+
+                // a weighted unit vector toward their average location
+
+                double m = Math.sqrt( ox * ox + oy * oy );
+                if ( m > EPS ) {
+                    sx += ox / m * w;
+                    sy += oy / m * w;
+                }
+            }
+            s.steerX[i] = sx;
+            s.steerY[i] = sy;
+        }
+    }
+
+    /*************************************************************************************
+     * SteerTask steers a range of one flock's Boids on its step pool, splitting it in half
+     * until it is small enough to do directly
+     */
+    private class SteerTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BoidArrays s;
+        private final int a;
+        private final int n;
+        private final int from;
+        private final int to;
+
+        SteerTask( BoidArrays s, int a, int n, int from, int to ) {
+            this.s = s;
+            this.a = a;
+            this.n = n;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if ( to - from <= Flock.PARALLEL_GRAIN ) {
+                int[] cand = WORKER_CANDIDATES.get();
+                if ( cand.length < x.length ) {
+                    cand = new int[x.length];
+                    WORKER_CANDIDATES.set( cand );
+                }
+                steer( s, a, n, from, to, cand );
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll( new SteerTask( s, a, n, from, mid ), new SteerTask( s, a, n, mid, to ) );
+            }
+        }
+    }
+}
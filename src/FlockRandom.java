@@ -0,0 +1,85 @@
+/*******************************************************************************************************************
+ * FlockRandom is a small, fast, splittable random number generator (xoroshiro128++) for placing Boids.
+ *
+ * Each Flock places its Boids with a generator of its own, split from a seeded parent, so the world a seed gives
+ * does not depend on how many threads create it or in what order they run: a flock that spawns its Boids in
+ * parallel splits one generator per fixed-size block of Boids before starting, and no generator is ever shared
+ * between threads.  The whole state is two longs, so a generator can be saved and restored exactly (see
+ * Checkpoint).
+ *
+ * Not thread safe; give each thread its own generator with split().
+ */
+class FlockRandom {
+
+    private long s0;
+    private long s1;
+
+    /**
+     * FlockRandom constructor; equal seeds give equal sequences
+     * @param seed the seed
+     */
+    FlockRandom( long seed ) {
+        long z = seed;
+        z += 0x9E3779B97F4A7C15L;
+        this.s0 = mix( z );
+        z += 0x9E3779B97F4A7C15L;
+        this.s1 = mix( z );
+        if ( (s0 | s1) == 0 ) {     // the one state xoroshiro cannot leave
+            s1 = 1;
+        }
+    }
+
+    /**
+     * Restore constructor for a generator saved with getState0() and getState1()
+     * @param s0 first half of the state
+     * @param s1 second half of the state
+     */
+    FlockRandom( long s0, long s1 ) {
+        this.s0 = s0;
+        this.s1 = ((s0 | s1) == 0) ? 1 : s1;
+    }
+
+    long getState0() { return s0; }
+    long getState1() { return s1; }
+
+    /**
+     * nextLong() - the next 64 random bits
+     * @return a uniformly distributed long
+     */
+    long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = Long.rotateLeft( a + b, 17 ) + a;
+        b ^= a;
+        s0 = Long.rotateLeft( a, 49 ) ^ b ^ (b << 21);
+        s1 = Long.rotateLeft( b, 28 );
+        return result;
+    }
+
+    /**
+     * nextDouble() - a random double in [0, 1), like java.util.Random.nextDouble()
+     * @return a uniformly distributed double from 53 random bits
+     */
+    double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * split() - a new generator, statistically independent of this one, seeded from this one's sequence
+     * @return the new generator
+     */
+    FlockRandom split() {
+        return new FlockRandom( nextLong() );
+    }
+
+    // private helper functions
+
+    /**
+     * The SplitMix64 finalizer, which spreads a seed's bits over the whole state
+     */
+    private static long mix( long z ) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
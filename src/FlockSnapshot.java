@@ -0,0 +1,49 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/*******************************************************************************************
+ * FlockSnapshot is a copy of everything needed to draw one Flock at one tick: the location,
+ * heading (velocity), size, color, and image of each Boid.  Its arrays are reused from one
+ * capture to the next so publishing a snapshot every tick allocates nothing once they have
+ * grown to the size of the flock.
+ */
+class FlockSnapshot {
+
+    int flockId = 0;
+    String name = "";
+    int count = 0;
+
+    double[] x = new double[0];
+    double[] y = new double[0];
+    double[] vx = new double[0];
+    double[] vy = new double[0];
+    int[] size = new int[0];
+    Color[] color = new Color[0];
+    BufferedImage[] image = new BufferedImage[0];
+
+    /************************************************************************
+     * Grows the arrays (discarding their contents) so they hold n Boids
+     * @param n number of Boids to hold
+     */
+    void ensureCapacity( int n ) {
+        if ( x.length < n ) {
+            x = new double[n];
+            y = new double[n];
+            vx = new double[n];
+            vy = new double[n];
+            size = new int[n];
+            color = new Color[n];
+            image = new BufferedImage[n];
+        }
+    }
+
+    /************************************************************************
+     * Draws every Boid in the snapshot
+     * @param g where to draw
+     */
+    void draw( Graphics2D g ) {
+        for( int i=0; i<count; i++ ) {
+            Boid.draw( g, x[i], y[i], vx[i], vy[i], size[i], color[i], image[i] );
+        }
+    }
+}
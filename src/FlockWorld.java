@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/*******************************************************************************************************************
+ * FlockWorld is the simulation model on its own: the list of flocks and the size of the world they move in.
+ * It knows nothing about drawing, so it is shared by the windowed FlockingSimulation and by the
+ * HeadlessSimulation batch runner.
+ */
+class FlockWorld {
+
+    private final int width;
+    private final int height;
+    private final ArrayList<Flock> flocks = new ArrayList<>();
+    private FlockInteractions interactions = new FlockInteractions();
+    private long tick = 0;
+
+    // disruption points waiting for the next step
+    private int[] disruptX = new int[4];
+    private int[] disruptY = new int[4];
+    private int disruptions = 0;
+
+    /**
+     * FlockWorld constructor; also tells the Boid class the size of the world
+     * @param width width of the world
+     * @param height height of the world
+     */
+    FlockWorld( int width, int height ) {
+        this.width = width;
+        this.height = height;
+        Boid.setWorldSize( width, height );
+    }
+
+    int getWidth() { return width; }
+    int getHeight() { return height; }
+    ArrayList<Flock> getFlocks() { return flocks; }
+
+    /**
+     * getTick() - number of steps taken so far
+     * @return the current tick
+     */
+    long getTick() { return tick; }
+
+    /**
+     * setStepPool() - steps every flock in parallel on the given pool (or sequentially for null)
+     * @param pool ForkJoinPool to step on
+     */
+    void setStepPool( ForkJoinPool pool ) {
+        for (Flock f : flocks) {
+            f.setStepPool(pool);
+        }
+    }
+
+    /**
+     * setInteraction() - makes Boids of one species (flock name) move toward or away from those of another
+     * @param subject name of the flocks that react
+     * @param other name of the flocks they react to
+     * @param radius how near the other Boids must be to be noticed
+     * @param weight positive to chase, negative to flee (compare with the flocks' own rule weights), 0 to remove
+     */
+    void setInteraction( String subject, String other, double radius, double weight ) {
+        interactions.setRule( subject, other, radius, weight );
+    }
+
+    /**
+     * disrupt() - queues a disruption point; at the start of the next step, the Boids of every flock near it
+     * evade it (points queued for the same step are applied in order)
+     * @param x x coordinate of the disruption point
+     * @param y y coordinate of the disruption point
+     */
+    void disrupt( int x, int y ) {
+        if (disruptions == disruptX.length) {
+            disruptX = Arrays.copyOf(disruptX, 2 * disruptions);
+            disruptY = Arrays.copyOf(disruptY, 2 * disruptions);
+        }
+        disruptX[disruptions] = x;
+        disruptY[disruptions] = y;
+        disruptions++;
+    }
+
+    /**
+     * save() - writes the state of the world into a Checkpoint (see Checkpoint.save()): the tick, the state of the
+     * generator new flocks split theirs from (two longs), the interaction rules, the queued disruption points, and every flock
+     * @param out the checkpoint being written
+     * @throws IOException if the checkpoint cannot be written
+     */
+    void save( Checkpoint.Output out ) throws IOException {
+        out.putLong( tick );
+        FlockRandom rand = Boid.getRandom();
+        out.putLong( rand.getState0() ).putLong( rand.getState1() );
+        interactions.save( out );
+        out.putInt( disruptions );
+        for (int i = 0; i < disruptions; i++) {
+            out.putInt( disruptX[i] ).putInt( disruptY[i] );
+        }
+        out.putInt( flocks.size() );
+        for (Flock f : flocks) {
+            f.save( out );
+        }
+    }
+
+    /**
+     * restore() - replaces the state of the world with one written by save(); nothing changes unless all of it
+     * is read.  The restored flocks step on the pool the current ones did.
+     * @param in the checkpoint being read
+     * @throws IOException if the checkpoint cannot be read or is corrupt
+     */
+    void restore( Checkpoint.Input in ) throws IOException {
+        long savedTick = in.getLong();
+        FlockRandom rand = new FlockRandom( in.getLong(), in.getLong() );
+        FlockInteractions savedInteractions = new FlockInteractions( in );
+        int points = in.getCount( 8 );
+        int[] xs = new int[Math.max( 4, points )];
+        int[] ys = new int[Math.max( 4, points )];
+        for (int i = 0; i < points; i++) {
+            xs[i] = in.getInt();
+            ys[i] = in.getInt();
+        }
+        int n = in.getCount( 4 );
+        ArrayList<Flock> savedFlocks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            savedFlocks.add( new Flock( in ) );
+        }
+
+        ForkJoinPool pool = flocks.isEmpty() ? null : flocks.get(0).getStepPool();
+        tick = savedTick;
+        Boid.setRandom( rand );
+        interactions = savedInteractions;
+        disruptX = xs;
+        disruptY = ys;
+        disruptions = points;
+        flocks.clear();
+        flocks.addAll( savedFlocks );
+        setStepPool( pool );
+    }
+
+    /**
+     * step() - applies the queued disruptions and then advances every flock by one tick; every flock's new
+     * velocities are computed from the same locations before any flock moves
+     */
+    void step() {
+        for (Flock f : flocks) {
+            f.prepareStep();
+        }
+        if (disruptions > 0) {
+            for (Flock f : flocks) {
+                f.evade(disruptX, disruptY, disruptions);
+            }
+            disruptions = 0;
+        }
+        interactions.apply(flocks);
+        for (Flock f : flocks) {
+            f.computeStep();
+        }
+        for (Flock f : flocks) {
+            f.finishStep();
+        }
+        tick++;
+    }
+}
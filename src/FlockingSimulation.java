@@ -1,6 +1,9 @@
 import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 
 /*******************************************************************************************************************
  * Top level class for the Flocking Simulation with the activate() method to run the simulation
@@ -12,11 +15,36 @@ class FlockingSimulation {
     private final Color BACKGROUND_COLOR = Color.WHITE;
     private final int SCREEN_WIDTH = 1000;
     private final int SCREEN_HEIGHT = 700;
+    private final double TICK_RATE = 10.0;     // simulation steps per second (the old 100 ms delay)
+    private final double FRAME_RATE = 60.0;    // target frames per second
+    private final String TITLE = "Flocking Simulation - Spacebar to pause/resume, " +
+        "Left Click to Disrupt, S/L to Save/Load, Right Click to Terminate - ";
+    private final String CHECKPOINT_FILE = "flocks.ckp";   // where the S and L keys save and load the world
     private DrawingPanel panel;
 
-    private boolean pause = false;
+    private volatile boolean pause = false;
+    private volatile boolean running = false;     // cleared by close() to end the animation loop
+    private volatile boolean looping = false;     // true while the animation loop owns the window
+    private boolean renderThreadEnabled = true;
+    private boolean activeRenderingEnabled = true;
+    private String recordingFile = null;
+    private int recordingKeyframes = 0;
+    private boolean seeded = false;
+    private long seed;
+    private TrajectoryRecorder recorder;
+    private FlockWorld world;
+    private SnapshotExchange snapshots;
+    private RenderThread renderThread;
     ArrayList<Flock> flocks;
 
+    // edits from other threads (the DemoGUI) are queued here and applied by the simulation thread between
+    // ticks, so they never race with the loop stepping the flocks
+
+    private final CommandQueue<Runnable> commands = new CommandQueue<>();
+    private volatile String[] flockNames = new String[0];
+    private final CountDownLatch initialized = new CountDownLatch(1);   // released however activate() ends
+    private volatile boolean flocksCreated = false;                      // activate() got as far as the flocks
+
     /**
      * Zero argument constructor for the FlockingSimulation
      */
@@ -29,24 +57,36 @@ class FlockingSimulation {
      */
     void activate() {
         try {
+            running = true;
 
             // set up the DrawingPanel
             panel = new DrawingPanel(SCREEN_WIDTH, SCREEN_HEIGHT);
 
+            panel.setActiveRendering(activeRenderingEnabled);  // present by page flipping
+
             Boid.setDrawingPanel(panel, SCREEN_WIDTH, SCREEN_HEIGHT);
-            Graphics2D g = panel.getGraphics();
+            if (seeded) {
+                Boid.setSeed(seed);   // the same seed creates the same flocks every run
+            }
 
-            panel.setWindowTitle("Flocking Simulation - Spacebar to pause/resume, " +
-                "Left Click to Disrupt, Right Click to Terminate - ");
+            panel.setWindowTitle(TITLE);
 
             panel.setBackground(BACKGROUND_COLOR);
 
             // Use an ArrayList of flocks so that it can flex to however many flocks there are
 
-            flocks = new ArrayList<>();
+            world = new FlockWorld(SCREEN_WIDTH, SCREEN_HEIGHT);
+            flocks = world.getFlocks();
+
+            // raptors chase birds and birds flee raptors
+
+            world.setInteraction("Raptors", "Birds", 150, 0.3);
+            world.setInteraction("Birds", "Raptors", 100, -0.6);
 
-            flocks.add(new Flock("Birds", 30));
-            flocks.add(new Flock("Raptors", 10, Color.RED, 15, 15));
+            addDefaultFlocks();
+            publishFlockNames();
+            flocksCreated = true;
+            initialized.countDown();
 
             for (Flock f : flocks) {   // draw the initial locations of the flocks
                 f.draw();
@@ -54,59 +94,155 @@ class FlockingSimulation {
 
             panel.copyGraphicsToScreen();   // show the initial window with flocks
 
-            // the animation loop
+            if (recordingFile != null) {
+                recorder = new TrajectoryRecorder(Paths.get(recordingFile), SCREEN_WIDTH, SCREEN_HEIGHT,
+                    recordingKeyframes);
+            }
+
+            // draw on a separate thread from snapshots published after each tick, if enabled
 
-            while (!panel.mouseClickHasOccurred(DrawingPanel.RIGHT_BUTTON)) {
+            if (renderThreadEnabled) {
+                snapshots = new SnapshotExchange();
+                renderThread = new RenderThread(panel, snapshots, BACKGROUND_COLOR, FRAME_RATE);
+                renderThread.start();
+            }
 
-                panel.setWindowTitle("Flocking Simulation - Spacebar to pause/resume, " +
-                    "Left Click to Disrupt, Right Click to Terminate - ");
+            // the animation loop: the flocks step at a fixed tick rate and are drawn at their own frame rate,
+            // so the simulation runs at the same speed however long drawing takes
 
-                // if the spacebar is pressed, toggle the pause between pause and resume
+            GameLoop loop = new GameLoop(TICK_RATE, FRAME_RATE);
+            looping = true;
+            loop.run(new GameLoop.Callbacks() {
 
-                if (panel.keyHasBeenHit((int) ' ')) {
-                    pause = !pause;
+                @Override
+                public boolean isRunning() {
+                    return running && !panel.mouseClickHasOccurred(DrawingPanel.RIGHT_BUTTON);
                 }
 
-                // if not paused, step the animation
+                @Override
+                public void tick() throws Exception {
 
-                if (!pause) {
-                    panel.setBackground(BACKGROUND_COLOR);  // clear the window
+                    // S saves the world and L restores it, at the tick boundary like any other edit
+
+                    if (panel.keyHasBeenHit((int) 'S')) {
+                        saveCheckpoint(CHECKPOINT_FILE);
+                    }
+                    if (panel.keyHasBeenHit((int) 'L')) {
+                        restoreCheckpoint(CHECKPOINT_FILE);
+                    }
 
-                    // check for a disruption
+                    // apply queued edits at the tick boundary, before anything reads the flocks
 
-                    if (panel.mouseClickHasOccurred(DrawingPanel.LEFT_BUTTON)) {
-                        int x = panel.getMouseClickX(DrawingPanel.LEFT_BUTTON);
-                        int y = panel.getMouseClickY(DrawingPanel.LEFT_BUTTON);
+                    boolean changed = applyCommands();
 
-                        // evade the flocks and then draw them
+                    // if the spacebar is pressed, toggle the pause between pause and resume
 
-                        for (Flock f : flocks) {
-                            f.evade(x, y);
-                            f.draw();
-                        }
-                    } else {
+                    if (panel.keyHasBeenHit((int) ' ')) {
+                        pause = !pause;
+                    }
 
-                        // otherwise just move and draw the flocks
+                    // if not paused, step the animation
 
-                        for (Flock f : flocks) {
-                            f.move();
-                            f.draw();
+                    if (!pause) {
+
+                        // a disruption is evaded at the start of the step, and the flocks still move
+
+                        if (panel.mouseClickHasOccurred(DrawingPanel.LEFT_BUTTON)) {
+                            world.disrupt(panel.getMouseClickX(DrawingPanel.LEFT_BUTTON),
+                                panel.getMouseClickY(DrawingPanel.LEFT_BUTTON));
+                        }
+                        world.step();
+                        if (recorder != null) {
+                            recorder.record(world.getTick(), flocks);
                         }
+                        changed = true;
+                    }
+
+                    if (changed && renderThreadEnabled) {
+                        snapshots.beginWrite().capture(flocks);
+                        snapshots.publish();
                     }
-                    panel.copyGraphicsToScreen();  // update the animation display
                 }
-                panel.sleep(100); // delay between the animation steps
 
-            } // end while loop
+                @Override
+                public void render() throws Exception {
+                    if (renderThreadEnabled) {
+                        panel.setWindowTitle(TITLE + String.format("%.0f ticks/s, %.0f fps",
+                            loop.getMeasuredTickRate(), renderThread.getMeasuredFrameRate()));
+                        return;  // the render thread does the drawing
+                    }
+                    panel.setWindowTitle(TITLE + String.format("%.0f ticks/s, %.0f fps",
+                        loop.getMeasuredTickRate(), loop.getMeasuredFrameRate()));
 
+                    panel.setBackground(BACKGROUND_COLOR);  // clear the window
+                    for (Flock f : flocks) {
+                        f.draw();
+                    }
+                    panel.copyGraphicsToScreen();  // update the animation display
+                }
+            });
+
+            looping = false;
+            running = false;
+            if (renderThread != null) {
+                renderThread.shutdown();
+                renderThread = null;
+            }
+            if (recorder != null) {
+                recorder.close();
+                recorder = null;
+            }
             panel.closeWindow();  // all done, close the window
 
         } catch (Exception e) { // handle any exceptions that might occur
             System.out.println("FlockingSimulation Error: " + e.getMessage());
             System.exit(1);
+        } finally {
+            initialized.countDown();   // never leave waitUntilInitialized() blocked
         }
     }
 
+    /**
+     * addDefaultFlocks() - creates the flocks the simulation starts with
+     * @throws Exception anything thrown creating the flocks
+     */
+    private void addDefaultFlocks() throws Exception {
+        flocks.add(new Flock("Birds", 30));
+        flocks.add(new Flock("Raptors", 10, Color.RED, 15, 15));
+    }
+
+    /**
+     * applyCommands() - runs every queued edit on the simulation thread
+     * @return true if any edit was applied
+     */
+    private boolean applyCommands() {
+        boolean applied = false;
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            try {
+                command.run();
+            } catch (Exception e) {
+                e.printStackTrace();   // a bad edit should not take the simulation down
+            }
+            applied = true;
+        }
+        if (applied) {
+            publishFlockNames();
+        }
+        return applied;
+    }
+
+    /**
+     * publishFlockNames() - lets other threads read the flock names without touching the flock list
+     */
+    private void publishFlockNames() {
+        String[] names = new String[flocks.size()];
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = flocks.get(i).getName();
+        }
+        flockNames = names;
+    }
+
     /* DemoGUI support function */
 
     /**
@@ -126,10 +262,111 @@ class FlockingSimulation {
     }
 
     /**
-     * close() - close the window
+     * setRenderThreadEnabled() - choose whether activate() draws on a separate render thread (the default)
+     * or on the simulation thread between ticks
+     * @param enabled true to draw on a separate thread
+     */
+    public void setRenderThreadEnabled(boolean enabled) {
+        this.renderThreadEnabled = enabled;
+    }
+
+    /**
+     * setActiveRenderingEnabled() - choose whether activate() presents frames by page flipping an accelerated
+     * buffer (the default) or by copying a BufferedImage onto the window
+     * @param enabled true to page flip
+     */
+    public void setActiveRenderingEnabled(boolean enabled) {
+        this.activeRenderingEnabled = enabled;
+    }
+
+    /**
+     * setSeed() - makes the next activate() create the same flocks (and, with the same inputs, the same run)
+     * every time; without a seed every run is different
+     * @param seed seed of the random numbers the flocks are placed with
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.seeded = true;
+    }
+
+    /**
+     * setRecordingFile() - record every tick of the next activate() into a file (see TrajectoryRecorder)
+     * @param file file to record into, or null not to record
+     */
+    public void setRecordingFile(String file) {
+        setRecordingFile(file, 0);
+    }
+
+    /**
+     * setRecordingFile() - record every tick of the next activate() into a compressed file
+     * @param file file to record into, or null not to record
+     * @param keyframeInterval ticks from one keyframe to the next, or 0 to record raw doubles
+     */
+    public void setRecordingFile(String file, int keyframeInterval) {
+        this.recordingFile = file;
+        this.recordingKeyframes = keyframeInterval;
+    }
+
+    /**
+     * close() - close the window; the animation loop finishes its current tick and then closes it
      */
     public void close() {
-        panel.closeWindow();
+        running = false;
+        if (!looping && panel != null) {
+            panel.closeWindow();
+        }
+    }
+
+    /**
+     * reset() - replaces all flocks with new default ones at random locations and velocities
+     */
+    public void reset() {
+        commands.offer(() -> {
+            try {
+                flocks.clear();
+                addDefaultFlocks();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * disrupt() - queues a disruption at (x, y), as a left click there does, for the next tick
+     * @param x x coordinate of the disruption point
+     * @param y y coordinate of the disruption point
+     */
+    public void disrupt(int x, int y) {
+        commands.offer(() -> world.disrupt(x, y));
+    }
+
+    /**
+     * saveCheckpoint() - saves the whole world (see Checkpoint) into a file between ticks
+     * @param file file to save into
+     */
+    public void saveCheckpoint(String file) {
+        commands.offer(() -> {
+            try {
+                Checkpoint.save(world, Paths.get(file));
+            } catch (IOException e) {
+                System.out.println("FlockingSimulation: cannot save " + file + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * restoreCheckpoint() - replaces the whole world with one saved by saveCheckpoint(), between ticks; the world
+     * is left as it was if the file cannot be read
+     * @param file file to restore from
+     */
+    public void restoreCheckpoint(String file) {
+        commands.offer(() -> {
+            try {
+                Checkpoint.restore(world, Paths.get(file));
+            } catch (IOException e) {
+                System.out.println("FlockingSimulation: cannot restore " + file + ": " + e.getMessage());
+            }
+        });
     }
 
     /**
@@ -137,9 +374,11 @@ class FlockingSimulation {
      */
     public void switchEdgeMode() {
         //for each Flock, for each Boid, toggle the edge mode
-        for (Flock f : flocks) {
-            f.chgEdgeMode();
-        }
+        commands.offer(() -> {
+            for (Flock f : flocks) {
+                f.chgEdgeMode();
+            }
+        });
     }
 
     /**
@@ -151,11 +390,13 @@ class FlockingSimulation {
      * @param speed speed of flock
      */
     public void addFlock(String name, int count, Color c, int size, int speed) {
-        try {
-            flocks.add(new Flock(name, count, c, size, speed));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        commands.offer(() -> {
+            try {
+                flocks.add(new Flock(name, count, c, size, speed));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
     }
 
     /**
@@ -169,18 +410,18 @@ class FlockingSimulation {
      * @param sepRad separation radius
      */
     public void editFlock(int flockId, Color c, int size, int speed, int alignRad, int cohRad, int sepRad) {
-        flocks.get(flockId).editThisFlock(c, size, speed, alignRad, cohRad, sepRad);
+        commands.offer(() -> flocks.get(flockId).editThisFlock(c, size, speed, alignRad, cohRad, sepRad));
     }
     /**
      * delFlock() - remove a flock
      * @param flockIndex Index of a specified flock
      */
     public void delFlock(int flockIndex) {
-        flocks.remove(flockIndex);
+        commands.offer(() -> flocks.remove(flockIndex));
     }
 
     /**
-     * setNewWeights() - sets the new Weighted Flock values
+     * setNewWeights() - sets the new Weighted Flock values; all four change together between ticks
      * @param flockIndex flock to set
      * @param velW current velocity weight
      * @param sepW separation weight
@@ -188,10 +429,13 @@ class FlockingSimulation {
      * @param cohW cohesion weight
      */
     public void setNewWeights(int flockIndex, double velW, double sepW, double alignW, double cohW) {
-        flocks.get(flockIndex).setWeightCurrentVelocity(velW);
-        flocks.get(flockIndex).setWeightSeparation(sepW);
-        flocks.get(flockIndex).setWeightAlignment(alignW);
-        flocks.get(flockIndex).setWeightCohesion(cohW);
+        commands.offer(() -> {
+            Flock f = flocks.get(flockIndex);
+            f.setWeightCurrentVelocity(velW);
+            f.setWeightSeparation(sepW);
+            f.setWeightAlignment(alignW);
+            f.setWeightCohesion(cohW);
+        });
     }
 
     /**
@@ -200,16 +444,23 @@ class FlockingSimulation {
      */
     public String[] getFlockNames() {
         String[] names = new String[1000]; //assume less than 1,000 flocks
-        for (int i = 0; i < flocks.size(); ++i) {
-            names[i] = flocks.get(i).getName(); //add the name of each flock to an array
-        }
+        String[] current = flockNames;
+        System.arraycopy(current, 0, names, 0, current.length);
         return names;
     }
 
     /**
-     * waitUntilInitialized() - wait for initialization
+     * waitUntilInitialized() - wait for activate() (usually on another thread) to create the flocks, or to fail
+     * before it could
+     * @return true if the flocks were created, false if activate() failed or the wait was interrupted
      */
-    public void waitUntilInitialized() {
-        panel.sleep(100);
+    public boolean waitUntilInitialized() {
+        try {
+            initialized.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return flocksCreated;
     }
 }
@@ -0,0 +1,130 @@
+import java.util.concurrent.locks.LockSupport;
+
+/*******************************************************************************************************************
+ * GameLoop runs a simulation at a fixed tick rate, independent of how long rendering takes, and renders at a
+ * separate target frame rate.
+ *
+ * Each pass through the loop runs every simulation tick that has come due, then renders if a frame is due.
+ * After a slow frame the loop catches up by running several ticks back to back (up to maxCatchUpTicks), and
+ * any frames that came due meanwhile are skipped rather than rendered late.  If the machine cannot keep up
+ * even then, the backlog beyond one catch-up burst is dropped so the loop cannot spiral; only then does the
+ * simulation fall behind wall-clock time.
+ */
+class GameLoop {
+
+    /**
+     * Callbacks the loop drives; all of them run on the thread that called run()
+     */
+    interface Callbacks {
+
+        /**
+         * @return false to make run() return
+         */
+        boolean isRunning();
+
+        /**
+         * Advances the simulation by one fixed tick
+         * @throws Exception anything thrown is passed on to the caller of run()
+         */
+        void tick() throws Exception;
+
+        /**
+         * Draws the current state of the simulation
+         * @throws Exception anything thrown is passed on to the caller of run()
+         */
+        void render() throws Exception;
+    }
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final long tickNanos;
+    private final long frameNanos;
+    private int maxCatchUpTicks = 5;
+
+    // rates measured over the last second, for display
+    private double measuredTickRate = 0.0;
+    private double measuredFrameRate = 0.0;
+
+    /**
+     * GameLoop constructor
+     * @param ticksPerSecond fixed simulation tick rate
+     * @param framesPerSecond target render rate
+     */
+    GameLoop(double ticksPerSecond, double framesPerSecond) {
+        this.tickNanos = (long) (NANOS_PER_SECOND / ticksPerSecond);
+        this.frameNanos = (long) (NANOS_PER_SECOND / framesPerSecond);
+    }
+
+    /**
+     * setMaxCatchUpTicks() - limits how many ticks run back to back (skipping frames) before the loop renders
+     * @param maxCatchUpTicks ticks per pass, at least one
+     */
+    void setMaxCatchUpTicks(int maxCatchUpTicks) {
+        this.maxCatchUpTicks = Math.max(1, maxCatchUpTicks);
+    }
+
+    double getMeasuredTickRate() { return measuredTickRate; }
+    double getMeasuredFrameRate() { return measuredFrameRate; }
+
+    /**
+     * run() - runs the loop until callbacks.isRunning() returns false
+     * @param callbacks the simulation being run
+     * @throws Exception anything thrown by the callbacks
+     */
+    void run(Callbacks callbacks) throws Exception {
+        long now = System.nanoTime();
+        long nextTick = now;
+        long nextFrame = now;
+
+        long rateStart = now;
+        int ticks = 0;
+        int frames = 0;
+
+        while (callbacks.isRunning()) {
+
+            // run every tick that has come due, up to one catch-up burst
+
+            int caughtUp = 0;
+            now = System.nanoTime();
+            while (now - nextTick >= 0 && caughtUp < maxCatchUpTicks) {
+                callbacks.tick();
+                nextTick += tickNanos;
+                caughtUp++;
+                ticks++;
+                now = System.nanoTime();
+            }
+            boolean behind = now - nextTick >= 0;
+
+            // render if a frame is due; frames missed while catching up are skipped, not rendered late
+
+            if (now - nextFrame >= 0) {
+                callbacks.render();
+                frames++;
+                nextFrame += frameNanos;
+                if (now - nextFrame >= 0) {
+                    nextFrame = now + frameNanos;
+                }
+            }
+
+            // drop a backlog the machine cannot work off, else sleep until the next tick or frame
+
+            now = System.nanoTime();
+            if (now - nextTick >= maxCatchUpTicks * tickNanos) {
+                nextTick = now;
+            } else if (!behind) {
+                long wait = Math.min(nextTick, nextFrame) - now;
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+
+            if (now - rateStart >= NANOS_PER_SECOND) {
+                measuredTickRate = ticks * (double) NANOS_PER_SECOND / (now - rateStart);
+                measuredFrameRate = frames * (double) NANOS_PER_SECOND / (now - rateStart);
+                rateStart = now;
+                ticks = 0;
+                frames = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/*******************************************************************************************************************
+ * Runs the flocking model with no window at all, stepping as fast as possible and reporting ticks per second.
+ * Intended for batch servers, so it works under java.awt.headless=true:
+ * <pre>
+ *     java -Djava.awt.headless=true HeadlessSimulation [width height [birds raptors [ticks [threads [file [keyframes]]]]]]
+ * </pre>
+ * Defaults are the 1000x700 world of FlockingSimulation with 3000 Birds and 1000 Raptors, run for 1000 ticks on
+ * the calling thread; threads &gt; 0 steps each flock on a ForkJoinPool of that size.  If a file is given, every
+ * tick is recorded into it with a TrajectoryRecorder, compressed with a keyframe every keyframes ticks if that is
+ * given and &gt; 0.
+ *
+ * The flocks are placed from a fixed seed, so runs with the same arguments are the same and their rates can be
+ * compared; -Dflock.seed=N picks another seed.
+ */
+class HeadlessSimulation {
+
+    private static final long REPORT_NANOS = 1000000000L;   // progress report interval
+    private static final long SEED = Long.getLong("flock.seed", 1L);
+
+    public static void main( String[] args ) {
+        try {
+            int width = (args.length > 1) ? Integer.parseInt(args[0]) : 1000;
+            int height = (args.length > 1) ? Integer.parseInt(args[1]) : 700;
+            int birds = (args.length > 3) ? Integer.parseInt(args[2]) : 3000;
+            int raptors = (args.length > 3) ? Integer.parseInt(args[3]) : 1000;
+            long ticks = (args.length > 4) ? Long.parseLong(args[4]) : 1000;
+            int threads = (args.length > 5) ? Integer.parseInt(args[5]) : 0;
+            String file = (args.length > 6) ? args[6] : null;
+            int keyframes = (args.length > 7) ? Integer.parseInt(args[7]) : 0;
+
+            FlockWorld world = new FlockWorld(width, height);
+            Boid.setSeed(SEED);
+            world.getFlocks().add(new Flock("Birds", birds));
+            world.getFlocks().add(new Flock("Raptors", raptors, java.awt.Color.RED, 15, 15));
+            world.setInteraction("Raptors", "Birds", 150, 0.3);
+            world.setInteraction("Birds", "Raptors", 100, -0.6);
+            if (threads > 0) {
+                world.setStepPool(new ForkJoinPool(threads));
+            }
+
+            System.out.printf(Locale.ROOT, "Headless %dx%d world, %d boids, %d ticks%n",
+                width, height, birds + raptors, ticks);
+
+            if (file == null) {
+                System.out.printf(Locale.ROOT, "%.1f ticks/s overall%n", run(world, ticks, true, null));
+            } else {
+                try (TrajectoryRecorder recorder = new TrajectoryRecorder(Paths.get(file), width, height, keyframes)) {
+                    System.out.printf(Locale.ROOT, "%.1f ticks/s overall, recording to %s%n",
+                        run(world, ticks, true, recorder), file);
+                    System.out.printf(Locale.ROOT, "recorder stalled %d times%n", recorder.getStalls());
+                }
+            }
+
+        } catch (Exception e) { // handle any exceptions that might occur
+            System.out.println("HeadlessSimulation Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * run() - steps the world the given number of ticks with no delay between them
+     * @param world the world to step
+     * @param ticks number of ticks to step
+     * @param report print the tick rate about once a second
+     * @param recorder records each tick, or null
+     * @return the average ticks per second over the whole run
+     * @throws IOException if recording fails
+     */
+    static double run(FlockWorld world, long ticks, boolean report, TrajectoryRecorder recorder)
+        throws IOException {
+        long start = System.nanoTime();
+        long lastReport = start;
+        long lastTick = world.getTick();
+        long recordNanos = 0;
+        for (long t = 0; t < ticks; t++) {
+            world.step();
+            if (recorder != null) {
+                long before = System.nanoTime();
+                recorder.record(world.getTick(), world.getFlocks());
+                recordNanos += System.nanoTime() - before;
+            }
+            long now = System.nanoTime();
+            if (report && now - lastReport >= REPORT_NANOS) {
+                System.out.printf(Locale.ROOT, "tick %d: %.1f ticks/s%n", world.getTick(),
+                    (world.getTick() - lastTick) * 1.0E9 / (now - lastReport));
+                lastReport = now;
+                lastTick = world.getTick();
+            }
+        }
+        if (report && recorder != null && ticks > 0) {
+            System.out.printf(Locale.ROOT, "recording took %.3f ms/tick of the simulation thread%n",
+                recordNanos / 1.0E6 / ticks);
+        }
+        return ticks * 1.0E9 / Math.max(1, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************************
+ * KNearest keeps the k nearest of the candidates offered to it, in a bounded max-heap on
+ * squared distance: a candidate only gets in by displacing the farthest one kept, so each
+ * offer costs O(log k) and the memory is fixed however many candidates there are.
+ *
+ * Candidates at the same distance are ordered by index, so the k kept are the same for the
+ * same candidates whatever order they are offered in.  Not thread safe; each thread of a
+ * step has its own.
+ */
+class KNearest {
+
+    private int k = 0;
+    private int size = 0;
+    private double[] dist = new double[0];   // max-heap on (dist, index)
+    private int[] index = new int[0];
+
+    /**
+     * Empties the heap for a new search
+     * @param k how many of the nearest to keep
+     */
+    void clear( int k ) {
+        this.k = k;
+        this.size = 0;
+        if ( dist.length < k ) {
+            dist = new double[k];
+            index = new int[k];
+        }
+    }
+
+    int size() { return size; }
+
+    boolean isFull() { return size == k; }
+
+    /**
+     * @return the squared distance of the farthest candidate kept
+     */
+    double farthest() { return dist[0]; }
+
+    /**
+     * Offers a candidate, kept if fewer than k are kept or it is nearer than the farthest
+     * @param distSq squared distance of the candidate
+     * @param i index of the candidate
+     */
+    void offer( double distSq, int i ) {
+        if ( size < k ) {
+            int c = size++;
+            while ( c > 0 ) {
+                int parent = (c - 1) >> 1;
+                if ( !after( distSq, i, dist[parent], index[parent] ) ) {
+                    break;
+                }
+                dist[c] = dist[parent];
+                index[c] = index[parent];
+                c = parent;
+            }
+            dist[c] = distSq;
+            index[c] = i;
+        } else if ( k > 0 && after( dist[0], index[0], distSq, i ) ) {
+            siftDown( distSq, i );
+        }
+    }
+
+    /**
+     * Copies the indices kept into result, in ascending order
+     * @param result receives the indices; must hold size() entries
+     * @return the number of indices
+     */
+    int indices( int[] result ) {
+        System.arraycopy( index, 0, result, 0, size );
+        SpatialGrid.sortAscending( result, size );
+        return size;
+    }
+
+    // private helper functions
+
+    /**
+     * Replaces the root with (d, i) and restores the heap
+     */
+    private void siftDown( double d, int i ) {
+        int c = 0;
+        int child;
+        while ( (child = 2 * c + 1) < size ) {
+            if ( child + 1 < size && after( dist[child + 1], index[child + 1], dist[child], index[child] ) ) {
+                child++;
+            }
+            if ( !after( dist[child], index[child], d, i ) ) {
+                break;
+            }
+            dist[c] = dist[child];
+            index[c] = index[child];
+            c = child;
+        }
+        dist[c] = d;
+        index[c] = i;
+    }
+
+    /**
+     * @return true if (d1, i1) is farther than (d2, i2), ties going to the higher index
+     */
+    private static boolean after( double d1, int i1, double d2, int i2 ) {
+        return d1 > d2 || (d1 == d2 && i1 > i2);
+    }
+}
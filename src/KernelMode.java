@@ -0,0 +1,7 @@
+/**
+ * KernelMode selects how a Flock applies the separation, alignment, and cohesion rules:
+ * SEPARATE walks the neighbors once per rule, FUSED gathers all three rules in one pass.
+ */
+public enum KernelMode {
+  SEPARATE, FUSED
+}
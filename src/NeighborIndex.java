@@ -0,0 +1,61 @@
+/*******************************************************************************************
+ * NeighborIndex is the query interface a Flock uses to find the candidate neighbors of a
+ * Boid.  An index is built once per tick from the flat arrays of Boid locations and then
+ * queried for each Boid.
+ *
+ * Queries return a superset of the Boids within the requested radius, always in ascending
+ * index order.  Callers still apply the exact distance test, so the flocking sums are made
+ * over the same Boids in the same order no matter which index is used.
+ */
+interface NeighborIndex {
+
+    /**************************************************************************************
+     * Builds (or rebuilds) the index over the given locations.
+     *
+     * @param x - x coordinates of the Boids, indexed the same as the Flock
+     * @param y - y coordinates of the Boids, indexed the same as the Flock
+     * @param count - number of valid entries in x and y
+     * @param cellSize - the largest radius that will be queried each tick
+     */
+    void build( double[] x, double[] y, int count, double cellSize );
+
+    /**************************************************************************************
+     * Readies the index, after build(), for queries wider than the cellSize it was built
+     * for and for queryPoint(), so that those queries only read the index and can be made
+     * from several threads at once.  Indexes that answer every query from what build()
+     * made have nothing to do.
+     */
+    default void prepareWideQueries() {
+    }
+
+    /**************************************************************************************
+     * Makes the world a torus for the following builds: queries then also find Boids
+     * across the edges, as wrapping Boids see them.  Locations are taken modulo the
+     * period, so width is the same place as 0.
+     *
+     * @param width - period in x, or 0 for a world without wrapping
+     * @param height - period in y, or 0 for a world without wrapping
+     */
+    void setPeriod( double width, double height );
+
+    /**************************************************************************************
+     * Collects the candidate neighbors of the Boid at the given index.
+     *
+     * @param index - index of the Boid being considered
+     * @param radius - neighborhood radius around that Boid
+     * @param result - receives the candidate indices in ascending order; must hold count entries
+     * @return the number of candidates written into result
+     */
+    int queryNeighbors( int index, double radius, int[] result );
+
+    /**************************************************************************************
+     * Collects the candidate Boids near a point that is not a Boid, such as a disruption.
+     *
+     * @param px - x coordinate of the point
+     * @param py - y coordinate of the point
+     * @param radius - radius around the point
+     * @param result - receives the candidate indices in ascending order; must hold count entries
+     * @return the number of candidates written into result
+     */
+    int queryPoint( double px, double py, double radius, int[] result );
+}
@@ -0,0 +1,7 @@
+/**
+ * NeighborMode selects how a Flock finds the candidate neighbors of each Boid
+ * when applying the separation, alignment, and cohesion rules.
+ */
+public enum NeighborMode {
+  BRUTE_FORCE, GRID, VERLET, QUADTREE
+}
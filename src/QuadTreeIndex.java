@@ -0,0 +1,280 @@
+/*******************************************************************************************
+ * QuadTreeIndex is an adaptive quadtree over the Boid locations of a Flock.  A uniform grid
+ * sized to the flocking radius degenerates once a flock clumps: most cells are empty and a
+ * few hold hundreds of Boids, every one of which is a candidate for every Boid nearby.  The
+ * quadtree instead splits each node into quadrants until it holds at most LEAF_SIZE Boids,
+ * so dense clumps get small nodes and open space gets large ones, and a query only tests the
+ * Boids of the nodes its circle overlaps.
+ *
+ * The tree is rebuilt every tick into flat arrays: the Boid indices are partitioned in place
+ * so that every node owns a contiguous range of them (nodeStart/nodeEnd), with a copy of the
+ * locations kept in the same order for the leaf scans.  Nothing is allocated once the arrays
+ * have grown.  Queries only read the tree, so they may run on several threads at once.
+ *
+ * Queries test the Boids of the leaves they reach against the radius (padded, so rounding
+ * can never drop a neighbor) and take whole nodes that lie inside the circle without testing
+ * them, so the candidates are almost exactly the Boids within the radius.
+ *
+ * With a period set the tree covers exactly one period of the world, locations are taken
+ * modulo the period, and distances are measured to the nearest image, so queries find
+ * Boids across the edges without ghost copies.
+ *
+ * The tree arrays are package-private so BarnesHutTree can add its sums to the nodes.
+ */
+class QuadTreeIndex implements NeighborIndex {
+
+    // most Boids a node holds before it is split
+    static final int LEAF_SIZE = 16;
+
+    // deepest a node is split, so Boids at (nearly) the same place cannot split forever
+    private static final int MAX_DEPTH = 24;
+
+    // padding applied to query radii so floating point rounding can never drop a neighbor
+    private static final double RADIUS_PAD = 1.0E-9;
+
+    double[] x;
+    double[] y;
+    int count = 0;
+
+    double periodX = 0.0;           // 0 unless the world wraps
+    double periodY = 0.0;
+
+    int[] items = new int[0];       // Boid indices, each node's Boids contiguous
+    double[] itemX = new double[0]; // locations in items order (wrapped into the period)
+    double[] itemY = new double[0];
+
+    int nodes = 0;
+    int[] nodeStart = new int[0];   // nodeStart[n] .. nodeEnd[n]-1 index into items
+    int[] nodeEnd = new int[0];
+    int[] nodeChild = new int[0];   // first of four consecutive children, or -1 for a leaf
+    double[] nodeX0 = new double[0];
+    double[] nodeY0 = new double[0];
+    double[] nodeX1 = new double[0];
+    double[] nodeY1 = new double[0];
+
+    @Override
+    public void build( double[] x, double[] y, int count, double cellSize ) {
+        this.x = x;
+        this.y = y;
+        this.count = count;
+
+        if ( items.length < count ) {
+            items = new int[count];
+            itemX = new double[count];
+            itemY = new double[count];
+        }
+        double minX = 0.0;
+        double minY = 0.0;
+        double maxX = periodX;
+        double maxY = periodY;
+        for( int i=0; i<count; i++ ) {
+            items[i] = i;
+            if ( periodX > 0.0 ) {
+                itemX[i] = wrap( x[i], periodX );
+                itemY[i] = wrap( y[i], periodY );
+            } else {
+                itemX[i] = x[i];
+                itemY[i] = y[i];
+            }
+        }
+        if ( periodX == 0.0 && count > 0 ) {
+            minX = maxX = x[0];
+            minY = maxY = y[0];
+            for( int i=1; i<count; i++ ) {
+                minX = Math.min( minX, x[i] );
+                maxX = Math.max( maxX, x[i] );
+                minY = Math.min( minY, y[i] );
+                maxY = Math.max( maxY, y[i] );
+            }
+        }
+
+        nodes = 0;
+        int root = newNode( 0, count, minX, minY, maxX, maxY );
+        split( root, 0 );
+    }
+
+    @Override
+    public void setPeriod( double width, double height ) {
+        this.periodX = (width > 0.0 && height > 0.0) ? width : 0.0;
+        this.periodY = (width > 0.0 && height > 0.0) ? height : 0.0;
+    }
+
+    @Override
+    public int queryNeighbors( int index, double radius, int[] result ) {
+        return queryPoint( x[index], y[index], radius, result );
+    }
+
+    @Override
+    public int queryPoint( double px, double py, double radius, int[] result ) {
+        if ( count == 0 ) {
+            return 0;
+        }
+        double r = radius + RADIUS_PAD;
+        if ( periodX > 0.0 ) {
+            px = wrap( px, periodX );
+            py = wrap( py, periodY );
+        }
+        int n = collect( 0, px, py, r, r * r, result, 0 );
+
+        // nodes are visited out of index order, so restore the order the brute force search uses
+
+        SpatialGrid.sortAscending( result, n );
+        return n;
+    }
+
+    // private helper functions
+
+    /**
+     * Splits a node into quadrants, and them in turn, until each holds at most LEAF_SIZE Boids
+     */
+    private void split( int node, int depth ) {
+        int start = nodeStart[node];
+        int end = nodeEnd[node];
+        if ( end - start <= LEAF_SIZE || depth >= MAX_DEPTH ) {
+            return;
+        }
+        double x0 = nodeX0[node];
+        double y0 = nodeY0[node];
+        double x1 = nodeX1[node];
+        double y1 = nodeY1[node];
+        double mx = 0.5 * (x0 + x1);
+        double my = 0.5 * (y0 + y1);
+
+        // partition the range by x and then each half by y: low-low, low-high, high-low, high-high
+
+        int midX = partition( start, end, mx, true );
+        int lowY = partition( start, midX, my, false );
+        int highY = partition( midX, end, my, false );
+
+        int child = newNode( start, lowY, x0, y0, mx, my );
+        newNode( lowY, midX, x0, my, mx, y1 );
+        newNode( midX, highY, mx, y0, x1, my );
+        newNode( highY, end, mx, my, x1, y1 );
+        nodeChild[node] = child;
+        for( int c=0; c<4; c++ ) {
+            split( child + c, depth + 1 );
+        }
+    }
+
+    /**
+     * Reorders items[start..end) so those below the split come first
+     * @return index of the first item at or above the split
+     */
+    private int partition( int start, int end, double split, boolean byX ) {
+        double[] key = byX ? itemX : itemY;
+        int i = start;
+        int j = end - 1;
+        while ( i <= j ) {
+            if ( key[i] < split ) {
+                i++;
+            } else {
+                swap( i, j );
+                j--;
+            }
+        }
+        return i;
+    }
+
+    private void swap( int i, int j ) {
+        int t = items[i];
+        items[i] = items[j];
+        items[j] = t;
+        double v = itemX[i];
+        itemX[i] = itemX[j];
+        itemX[j] = v;
+        v = itemY[i];
+        itemY[i] = itemY[j];
+        itemY[j] = v;
+    }
+
+    /**
+     * Collects the Boids of the node within r of (px, py) into result from n on
+     * @return the new number of entries in result
+     */
+    private int collect( int node, double px, double py, double r, double r2, int[] result, int n ) {
+        int start = nodeStart[node];
+        int end = nodeEnd[node];
+        if ( start == end ) {
+            return n;
+        }
+        double x0 = nodeX0[node];
+        double y0 = nodeY0[node];
+        double x1 = nodeX1[node];
+        double y1 = nodeY1[node];
+        double nx = gap( px, x0, x1, periodX );
+        double ny = gap( py, y0, y1, periodY );
+        if ( nx * nx + ny * ny > r2 ) {
+            return n;
+        }
+
+        // a node entirely within the radius is taken whole; the distance to its farthest corner
+        // is never less than the distance to the nearest image of any Boid in it
+
+        double fx = Math.max( px - x0, x1 - px );
+        double fy = Math.max( py - y0, y1 - py );
+        if ( fx * fx + fy * fy <= r2 ) {
+            for( int k=start; k<end; k++ ) {
+                result[n++] = items[k];
+            }
+            return n;
+        }
+
+        int child = nodeChild[node];
+        if ( child >= 0 ) {
+            for( int c=0; c<4; c++ ) {
+                n = collect( child + c, px, py, r, r2, result, n );
+            }
+            return n;
+        }
+        for( int k=start; k<end; k++ ) {
+            double dx = itemX[k] - px;
+            double dy = itemY[k] - py;
+            if ( periodX > 0.0 ) {
+                dx -= periodX * Math.rint( dx / periodX );
+                dy -= periodY * Math.rint( dy / periodY );
+            }
+            if ( dx * dx + dy * dy <= r2 ) {
+                result[n++] = items[k];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Distance from p to the interval [lo, hi], around the period if there is one
+     */
+    private static double gap( double p, double lo, double hi, double period ) {
+        double d = Math.max( 0.0, Math.max( lo - p, p - hi ) );
+        if ( period > 0.0 && d > 0.0 ) {
+            d = Math.min( d, Math.min( p + period - hi, lo + period - p ) );
+        }
+        return d;
+    }
+
+    private int newNode( int start, int end, double x0, double y0, double x1, double y1 ) {
+        if ( nodes == nodeStart.length ) {
+            int size = Math.max( 64, 2 * nodes );
+            nodeStart = java.util.Arrays.copyOf( nodeStart, size );
+            nodeEnd = java.util.Arrays.copyOf( nodeEnd, size );
+            nodeChild = java.util.Arrays.copyOf( nodeChild, size );
+            nodeX0 = java.util.Arrays.copyOf( nodeX0, size );
+            nodeY0 = java.util.Arrays.copyOf( nodeY0, size );
+            nodeX1 = java.util.Arrays.copyOf( nodeX1, size );
+            nodeY1 = java.util.Arrays.copyOf( nodeY1, size );
+        }
+        int n = nodes++;
+        nodeStart[n] = start;
+        nodeEnd[n] = end;
+        nodeChild[n] = -1;
+        nodeX0[n] = x0;
+        nodeY0[n] = y0;
+        nodeX1[n] = x1;
+        nodeY1[n] = y1;
+        return n;
+    }
+
+    private static double wrap( double v, double period ) {
+        double w = v - period * Math.floor( v / period );
+        return (w < period) ? w : 0.0;      // v just below a multiple of the period can round up to it
+    }
+}
@@ -0,0 +1,80 @@
+import java.awt.*;
+import java.util.concurrent.locks.LockSupport;
+
+/*******************************************************************************************************************
+ * RenderThread draws the latest WorldSnapshot published by the simulation onto a DrawingPanel at a target frame
+ * rate, so drawing overlaps with simulation on another core.  A snapshot is only drawn once; frames where the
+ * simulation has not published anything new are skipped.
+ */
+class RenderThread extends Thread {
+
+    private final DrawingPanel panel;
+    private final SnapshotExchange exchange;
+    private final Color background;
+    private final long frameNanos;
+    private volatile boolean running = true;
+    private volatile double measuredFrameRate = 0.0;
+
+    /**
+     * RenderThread constructor
+     * @param panel where to draw
+     * @param exchange where the simulation publishes its snapshots
+     * @param background color to clear the panel to each frame
+     * @param framesPerSecond target frame rate
+     */
+    RenderThread(DrawingPanel panel, SnapshotExchange exchange, Color background, double framesPerSecond) {
+        super("Flock Renderer");
+        this.panel = panel;
+        this.exchange = exchange;
+        this.background = background;
+        this.frameNanos = (long) (1.0E9 / framesPerSecond);
+        setDaemon(true);
+    }
+
+    double getMeasuredFrameRate() { return measuredFrameRate; }
+
+    /**
+     * shutdown() - stops the thread after the frame it is drawing and waits for it to finish
+     */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(this);
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastDrawn = -1;
+        long nextFrame = System.nanoTime();
+        long rateStart = nextFrame;
+        int frames = 0;
+
+        while (running) {
+            WorldSnapshot snapshot = exchange.latest();
+            if (snapshot.sequence > lastDrawn) {
+                panel.setBackground(background);  // clear the window
+                snapshot.draw(panel.getGraphics());
+                panel.copyGraphicsToScreen();  // update the animation display
+                lastDrawn = snapshot.sequence;
+                frames++;
+            }
+
+            long now = System.nanoTime();
+            if (now - rateStart >= 1000000000L) {
+                measuredFrameRate = frames * 1.0E9 / (now - rateStart);
+                rateStart = now;
+                frames = 0;
+            }
+
+            nextFrame += frameNanos;
+            if (now - nextFrame >= 0) {
+                nextFrame = now + frameNanos;
+            }
+            LockSupport.parkNanos(nextFrame - now);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/*******************************************************************************************
+ * SnapshotExchange hands WorldSnapshots from the simulation thread to the render thread
+ * without either of them blocking (triple buffering).  The simulation thread owns a back
+ * snapshot it fills in, the render thread owns a front snapshot it draws, and the most
+ * recently published one sits in between; publishing and picking up are each a single
+ * atomic swap, so neither thread ever sees a snapshot the other is writing.
+ */
+class SnapshotExchange {
+
+    private WorldSnapshot back = new WorldSnapshot();     // simulation thread only
+    private final AtomicReference<WorldSnapshot> middle = new AtomicReference<>( new WorldSnapshot() );
+    private WorldSnapshot front = new WorldSnapshot();    // render thread only
+    private long published = 0;                           // simulation thread only
+
+    /************************************************************************
+     * Simulation thread: the snapshot to fill in before calling publish()
+     * @return the back snapshot
+     */
+    WorldSnapshot beginWrite() {
+        return back;
+    }
+
+    /************************************************************************
+     * Simulation thread: makes the filled-in back snapshot the latest one
+     */
+    void publish() {
+        back.sequence = ++published;
+        back = middle.getAndSet( back );
+    }
+
+    /************************************************************************
+     * Render thread: picks up the latest published snapshot, if there is one
+     * newer than the last one picked up
+     * @return the newest snapshot available (sequence -1 if none yet)
+     */
+    WorldSnapshot latest() {
+
+        // only the simulation thread puts newer snapshots in the middle, so once it is
+        // newer than the front it stays newer until this thread swaps it out
+
+        if ( middle.get().sequence > front.sequence ) {
+            front = middle.getAndSet( front );
+        }
+        return front;
+    }
+}
@@ -0,0 +1,321 @@
+import java.util.Arrays;
+
+/*******************************************************************************************
+ * SpatialGrid is a uniform-grid spatial hash over the Boid locations of a Flock.  Each cell
+ * is as wide as the largest flocking radius, so every neighbor of a Boid lies in the 3x3
+ * block of cells around it and a query only visits those cells instead of the whole flock.
+ *
+ * The grid is stored as a counting sort of the Boid indices by cell (cellStart/cellItems),
+ * so rebuilding it every tick is O(N) and allocates nothing once the arrays have grown.
+ *
+ * With a period set the grid covers exactly one period of the world instead of the bounding
+ * box, and the cell indices of a query wrap around, so the cells on the far side of an edge
+ * act as the ghost cells of the near side.
+ *
+ * The Boids can also be split into layers (e.g. one per flock when several flocks share a
+ * grid); each layer then has its own set of cells over the same geometry, and queryLayer()
+ * only visits the Boids of the layer asked for.
+ */
+class SpatialGrid implements NeighborIndex {
+
+    // limit on the number of cells so a few far-flung Boids cannot blow up memory
+    private static final int MAX_CELLS = 1 << 20;
+
+    // padding applied to query radii so floating point rounding can never drop a neighbor
+    private static final double RADIUS_PAD = 1.0E-9;
+
+    private double[] x;
+    private double[] y;
+    private int count = 0;
+
+    private double cellSize = 1.0;
+    private double minX = 0.0;
+    private double minY = 0.0;
+    private int cols = 1;
+    private int rows = 1;
+    private double cellWidth = 1.0;         // cell dimensions of a periodic grid
+    private double cellHeight = 1.0;
+
+    private int[] cellStart = new int[2];   // cellStart[c] .. cellStart[c+1]-1 index into cellItems
+    private int[] cellItems = new int[0];   // Boid indices grouped by cell, ascending within a cell
+    private int[] cellOf = new int[0];      // cell of each Boid, kept to avoid recomputing it
+
+    private double periodX = 0.0;           // 0 unless the world wraps
+    private double periodY = 0.0;
+
+    private int[] layerOf = null;           // layer of each Boid, or null for a single layer
+    private int layers = 1;
+    private int cellsPerLayer = 1;
+
+    @Override
+    public void build( double[] x, double[] y, int count, double cellSize ) {
+        this.x = x;
+        this.y = y;
+        this.count = count;
+        this.cellSize = Math.max( cellSize, 1.0 );
+
+        if ( periodX > 0.0 ) {
+            buildPeriodic();
+        } else {
+            buildBounded();
+        }
+        fillCells();
+    }
+
+    @Override
+    public void setPeriod( double width, double height ) {
+        this.periodX = (width > 0.0 && height > 0.0) ? width : 0.0;
+        this.periodY = (width > 0.0 && height > 0.0) ? height : 0.0;
+    }
+
+    @Override
+    public int queryNeighbors( int index, double radius, int[] result ) {
+        int n = queryLayer( index, radius, 0, result );
+
+        // cells are visited out of index order, so restore the order the brute force search uses
+
+        sortAscending( result, n );
+        return n;
+    }
+
+    @Override
+    public int queryPoint( double px, double py, double radius, int[] result ) {
+        double r = radius + RADIUS_PAD;
+        int n;
+        if ( periodX > 0.0 ) {
+            n = queryPeriodic( px, py, r, 0, result );
+        } else {
+            n = collect( col( px - r ), col( px + r ), row( py - r ), row( py + r ), 0, result );
+        }
+        sortAscending( result, n );
+        return n;
+    }
+
+    /*************************************************************************************
+     * Splits the Boids into layers for the following builds (see the class comment).
+     *
+     * @param layerOf - layer of each Boid, indexed the same as x and y, or null for one layer
+     * @param layers - number of layers
+     */
+    void setLayers( int[] layerOf, int layers ) {
+        this.layerOf = layerOf;
+        this.layers = (layerOf == null) ? 1 : Math.max( 1, layers );
+    }
+
+    /*************************************************************************************
+     * Collects the candidate neighbors in one layer of the Boid at the given index.  Unlike
+     * queryNeighbors() the candidates are left in the order their cells are visited; that
+     * order is the same every time for the same locations, so results are still repeatable.
+     *
+     * @param index - index of the Boid being considered (it may be in any layer)
+     * @param radius - neighborhood radius around that Boid
+     * @param layer - layer to search
+     * @param result - receives the candidate indices; must hold count entries
+     * @return the number of candidates written into result
+     */
+    int queryLayer( int index, double radius, int layer, int[] result ) {
+        double r = radius + RADIUS_PAD;
+        int base = layer * cellsPerLayer;
+        if ( periodX > 0.0 ) {
+            return queryPeriodic( x[index], y[index], r, base, result );
+        }
+        return collect( col( x[index] - r ), col( x[index] + r ), row( y[index] - r ), row( y[index] + r ),
+                        base, result );
+    }
+
+    /*************************************************************************************
+     * Sizes the grid to the bounding box of the current locations
+     */
+    private void buildBounded() {
+        double maxX = 0.0;
+        double maxY = 0.0;
+        minX = 0.0;
+        minY = 0.0;
+        if ( count > 0 ) {
+            minX = maxX = x[0];
+            minY = maxY = y[0];
+            for( int i=1; i<count; i++ ) {
+                minX = Math.min( minX, x[i] );
+                maxX = Math.max( maxX, x[i] );
+                minY = Math.min( minY, y[i] );
+                maxY = Math.max( maxY, y[i] );
+            }
+        }
+        cols = (int) ((maxX - minX) / this.cellSize) + 1;
+        rows = (int) ((maxY - minY) / this.cellSize) + 1;
+        while ( (long) cols * rows > MAX_CELLS ) {
+            this.cellSize *= 2.0;
+            cols = (int) ((maxX - minX) / this.cellSize) + 1;
+            rows = (int) ((maxY - minY) / this.cellSize) + 1;
+        }
+    }
+
+    /*************************************************************************************
+     * Sizes the grid to one period of the world, with a whole number of cells across it
+     * that are each at least as wide as the cell size requested
+     */
+    private void buildPeriodic() {
+        cols = Math.max( 1, (int) (periodX / cellSize) );
+        rows = Math.max( 1, (int) (periodY / cellSize) );
+        while ( (long) cols * rows > MAX_CELLS ) {
+            cols = Math.max( 1, cols / 2 );
+            rows = Math.max( 1, rows / 2 );
+        }
+        cellWidth = periodX / cols;
+        cellHeight = periodY / rows;
+    }
+
+    /*************************************************************************************
+     * Counting sort of the Boid indices by cell; filling in index order keeps each cell
+     * ascending
+     */
+    private void fillCells() {
+        cellsPerLayer = cols * rows;
+        int cells = cellsPerLayer * layers;
+        if ( cellStart.length < cells + 1 ) {
+            cellStart = new int[cells + 1];
+        }
+        if ( cellItems.length < count ) {
+            cellItems = new int[count];
+            cellOf = new int[count];
+        }
+
+        Arrays.fill( cellStart, 0, cells + 1, 0 );
+        for( int i=0; i<count; i++ ) {
+            int c = (periodX > 0.0) ? periodicRow( y[i] ) * cols + periodicCol( x[i] )
+                                    : row( y[i] ) * cols + col( x[i] );
+            if ( layerOf != null ) {
+                c += layerOf[i] * cellsPerLayer;
+            }
+            cellOf[i] = c;
+            cellStart[c + 1]++;
+        }
+        for( int c=0; c<cells; c++ ) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        for( int i=0; i<count; i++ ) {
+            cellItems[cellStart[cellOf[i]]++] = i;
+        }
+
+        // the fill loop advanced each start to the next cell's start, so shift them back
+
+        for( int c=cells; c>0; c-- ) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    /*************************************************************************************
+     * Collects the Boids of the wrapped cells around (px, py), visiting each cell once even
+     * when the query reaches all the way around the world
+     */
+    private int queryPeriodic( double px, double py, double r, int layerBase, int[] result ) {
+        int c0 = (int) Math.floor( (px - r) / cellWidth );
+        int c1 = (int) Math.floor( (px + r) / cellWidth );
+        int r0 = (int) Math.floor( (py - r) / cellHeight );
+        int r1 = (int) Math.floor( (py + r) / cellHeight );
+        if ( c1 - c0 + 1 >= cols ) {
+            c0 = 0;
+            c1 = cols - 1;
+        }
+        if ( r1 - r0 + 1 >= rows ) {
+            r0 = 0;
+            r1 = rows - 1;
+        }
+
+        int n = 0;
+        for( int rr=r0; rr<=r1; rr++ ) {
+            int base = layerBase + Math.floorMod( rr, rows ) * cols;
+            for( int cc=c0; cc<=c1; cc++ ) {
+                int c = base + Math.floorMod( cc, cols );
+                for( int k=cellStart[c]; k<cellStart[c + 1]; k++ ) {
+                    result[n++] = cellItems[k];
+                }
+            }
+        }
+        return n;
+    }
+
+    /*************************************************************************************
+     * Collects the Boids of the cells in columns c0..c1 and rows r0..r1 of the layer whose
+     * cells start at layerBase
+     */
+    private int collect( int c0, int c1, int r0, int r1, int layerBase, int[] result ) {
+        int n = 0;
+        for( int row=r0; row<=r1; row++ ) {
+            for( int c=layerBase + row * cols + c0, last=layerBase + row * cols + c1; c<=last; c++ ) {
+                for( int k=cellStart[c]; k<cellStart[c + 1]; k++ ) {
+                    result[n++] = cellItems[k];
+                }
+            }
+        }
+        return n;
+    }
+
+    /*************************************************************************************
+     * Sorts a[0..n) in place without allocating (Arrays.sort may allocate a work array for
+     * the runs of sorted cells it finds): insertion sort for short ranges, else heapsort.
+     *
+     * @param a - array to sort
+     * @param n - number of entries to sort
+     */
+    static void sortAscending( int[] a, int n ) {
+        if ( n <= 32 ) {
+            for( int i=1; i<n; i++ ) {
+                int v = a[i];
+                int j = i - 1;
+                while ( j >= 0 && a[j] > v ) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        for( int i=n / 2 - 1; i>=0; i-- ) {
+            siftDown( a, i, n );
+        }
+        for( int end=n - 1; end>0; end-- ) {
+            int t = a[0];
+            a[0] = a[end];
+            a[end] = t;
+            siftDown( a, 0, end );
+        }
+    }
+
+    // private helper functions
+
+    private static void siftDown( int[] a, int i, int n ) {
+        int v = a[i];
+        int child;
+        while ( (child = 2 * i + 1) < n ) {
+            if ( child + 1 < n && a[child + 1] > a[child] ) {
+                child++;
+            }
+            if ( a[child] <= v ) {
+                break;
+            }
+            a[i] = a[child];
+            i = child;
+        }
+        a[i] = v;
+    }
+
+    private int col( double px ) {
+        int c = (int) Math.floor( (px - minX) / cellSize );
+        return Math.max( 0, Math.min( cols - 1, c ) );
+    }
+
+    private int row( double py ) {
+        int r = (int) Math.floor( (py - minY) / cellSize );
+        return Math.max( 0, Math.min( rows - 1, r ) );
+    }
+
+    private int periodicCol( double px ) {
+        return Math.floorMod( (int) Math.floor( px / cellWidth ), cols );
+    }
+
+    private int periodicRow( double py ) {
+        return Math.floorMod( (int) Math.floor( py / cellHeight ), rows );
+    }
+}
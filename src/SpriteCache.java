@@ -0,0 +1,203 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*******************************************************************************************
+ * SpriteCache pre-renders Boids so that drawing one is a single drawImage() call.  For each
+ * (color or image, size) pair it renders an atlas holding the Boid at HEADINGS evenly spaced
+ * headings, once, into an image compatible with the destination; a Boid is then drawn by
+ * copying the cell of its nearest heading.
+ *
+ * Circle Boids are drawn as before (a filled circle with a heading line as long as the Boid
+ * is wide).  Image Boids are the image scaled to size x size and rotated to the heading; the
+ * image is taken to face right (along +x) unrotated.
+ *
+ * Boids larger than MAX_SIZE are not cached (their atlas would be too big); draw() returns
+ * false for them so the caller can draw them directly.
+ *
+ * At most MAX_ATLASES atlases are kept.  Rendering one more discards the one drawn from least
+ * recently, so recoloring flocks again and again (as the DemoGUI does) cannot fill memory with
+ * atlases of colors no Boid has any more.
+ */
+class SpriteCache {
+
+    static final int HEADINGS = 64;
+    static final int MAX_SIZE = 64;
+
+    static final int MAX_ATLASES = 64;
+
+    private static final int COLUMNS = 8;   // atlas cells per row, so atlases stay roughly square
+
+    private static final ConcurrentHashMap<Key, Atlas> atlases = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Key> probe = ThreadLocal.withInitial( Key::new );
+    private static volatile long clock = 0;   // advanced for each atlas rendered, to date their use
+
+    /**
+     * Key identifies an atlas; images are compared by identity, colors by value
+     */
+    private static final class Key {
+        Object source;
+        int size;
+
+        Key() {
+        }
+
+        Key( Object source, int size ) {
+            this.source = source;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( !(o instanceof Key) ) {
+                return false;
+            }
+            Key k = (Key) o;
+            return size == k.size && Objects.equals( source, k.source );
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode( source ) + size;
+        }
+    }
+
+    /**
+     * Atlas is one rendered image holding a square cell per heading
+     */
+    private static final class Atlas {
+        final BufferedImage image;
+        final int cell;     // width and height of each cell
+        final int center;   // offset of the Boid's location within a cell
+        long lastUsed;      // clock when last drawn from; only a hint, so written without locking
+
+        Atlas( BufferedImage image, int cell ) {
+            this.image = image;
+            this.cell = cell;
+            this.center = cell / 2;
+        }
+    }
+
+    private SpriteCache() {
+    }
+
+    /*****************************************************************************
+     * Draws a Boid centered at (x, y) and facing along (vx, vy) from its atlas,
+     * rendering the atlas first if this is the first Boid of its kind
+     *
+     * @param g where to draw
+     * @param x x coordinate of the Boid's location
+     * @param y y coordinate of the Boid's location
+     * @param vx x component of the Boid's velocity
+     * @param vy y component of the Boid's velocity
+     * @param size size of the Boid
+     * @param color color of the Boid, used when there is no image
+     * @param image image of the Boid, or null to draw a circle
+     * @return false if the Boid is too large to be cached and was not drawn
+     */
+    static boolean draw( Graphics2D g, double x, double y, double vx, double vy, int size, Color color,
+                         BufferedImage image ) {
+        if ( size > MAX_SIZE || size < 1 ) {
+            return false;
+        }
+
+        Key key = probe.get();
+        key.source = (image != null) ? image : color;
+        key.size = size;
+        Atlas atlas = atlases.get( key );
+        if ( atlas == null ) {
+            atlas = atlases.computeIfAbsent( new Key( key.source, size ),
+                                             k -> render( g.getDeviceConfiguration(), color, image, size ) );
+            trim( atlas );
+        }
+        key.source = null;   // don't hold on to the image from the probe
+        atlas.lastUsed = clock;
+
+        // the nearest of the pre-rendered headings
+
+        int h = (int) Math.round( Math.atan2( vy, vx ) * HEADINGS / (2.0 * Math.PI) );
+        h = Math.floorMod( h, HEADINGS );
+        int sx = (h % COLUMNS) * atlas.cell;
+        int sy = (h / COLUMNS) * atlas.cell;
+
+        int dx = (int) x - atlas.center;
+        int dy = (int) y - atlas.center;
+        g.drawImage( atlas.image, dx, dy, dx + atlas.cell, dy + atlas.cell,
+                     sx, sy, sx + atlas.cell, sy + atlas.cell, null );
+        return true;
+    }
+
+    /*****************************************************************************
+     * Discards every atlas, e.g. after the images Boids are drawn with change
+     */
+    static void clear() {
+        atlases.clear();
+    }
+
+    // private helper functions
+
+    /**
+     * Dates a newly rendered atlas and discards the least recently used ones beyond MAX_ATLASES
+     */
+    private static synchronized void trim( Atlas added ) {
+        added.lastUsed = ++clock;
+        while ( atlases.size() > MAX_ATLASES ) {
+            Key oldest = null;
+            long stamp = Long.MAX_VALUE;
+            for( Map.Entry<Key, Atlas> e : atlases.entrySet() ) {
+                if ( e.getValue().lastUsed < stamp ) {
+                    stamp = e.getValue().lastUsed;
+                    oldest = e.getKey();
+                }
+            }
+            atlases.remove( oldest );
+        }
+    }
+
+    private static Atlas render( GraphicsConfiguration config, Color color, BufferedImage image, int size ) {
+
+        // a cell must hold the heading line (size from the center) or the image at any rotation
+
+        int cell = (image == null) ? 2 * size + 3 : (int) Math.ceil( size * Math.sqrt( 2.0 ) ) + 3;
+        int rows = (HEADINGS + COLUMNS - 1) / COLUMNS;
+        BufferedImage atlas = (config != null)
+            ? config.createCompatibleImage( COLUMNS * cell, rows * cell, Transparency.TRANSLUCENT )
+            : new BufferedImage( COLUMNS * cell, rows * cell, BufferedImage.TYPE_INT_ARGB );
+
+        Graphics2D ag = atlas.createGraphics();
+        ag.setComposite( AlphaComposite.Src );
+        ag.setColor( new Color( 0, 0, 0, 0 ) );
+        ag.fillRect( 0, 0, atlas.getWidth(), atlas.getHeight() );
+        ag.setComposite( AlphaComposite.SrcOver );
+
+        int center = cell / 2;
+        for( int h=0; h<HEADINGS; h++ ) {
+            double angle = 2.0 * Math.PI * h / HEADINGS;
+            int ox = (h % COLUMNS) * cell;
+            int oy = (h / COLUMNS) * cell;
+
+            if ( image == null ) {
+                ag.setColor( color );
+                ag.fillOval( ox + center - (size/2), oy + center - (size/2), size, size );
+                ag.drawLine( ox + center, oy + center,
+                             ox + center + (int) Math.round( Math.cos( angle ) * size ),
+                             oy + center + (int) Math.round( Math.sin( angle ) * size ) );
+            } else {
+                AffineTransform t = new AffineTransform();
+                t.translate( ox + center, oy + center );
+                t.rotate( angle );
+                t.translate( -size / 2.0, -size / 2.0 );
+                t.scale( (double) size / image.getWidth(), (double) size / image.getHeight() );
+                ag.setClip( ox, oy, cell, cell );
+                ag.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+                ag.drawImage( image, t, null );
+                ag.setClip( null );
+            }
+        }
+        ag.dispose();
+        return new Atlas( atlas, cell );
+    }
+}
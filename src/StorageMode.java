@@ -0,0 +1,7 @@
+/**
+ * StorageMode selects where a Flock keeps its motion state while stepping: in the Boid
+ * objects themselves or in a structure of primitive arrays (see BoidArrays).
+ */
+public enum StorageMode {
+  OBJECTS, ARRAYS
+}
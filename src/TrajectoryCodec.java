@@ -0,0 +1,191 @@
+import java.nio.ByteBuffer;
+
+/*******************************************************************************************************************
+ * TrajectoryCodec packs the Boids of a flock at one tick into a few bytes each, for compressed recordings (see
+ * TrajectoryRecorder).
+ *
+ * Locations are quantized to POSITION_BITS bits of fixed point across the world (1/65536 of its width or height)
+ * and velocities to the same units, so a location is exactly the previous one plus the velocity that moved it,
+ * up to rounding.  A keyframe stores the quantized values themselves.  A delta stores, per Boid, the change in
+ * velocity since the previous tick and how far the location is from the previous location plus the new velocity;
+ * both are usually tiny.  Every value is zigzag encoded (so small negative numbers are small too) and written as
+ * a varint of 7 bits per byte.
+ *
+ * Decoding a delta needs the quantized values of the tick before, which a Track keeps for each flock; the encoder
+ * updates its Track with exactly what the decoder will reconstruct, so errors never accumulate.
+ */
+class TrajectoryCodec {
+
+    static final int POSITION_BITS = 16;
+
+    /**
+     * Track is the quantized state of one flock at the last tick encoded or decoded
+     */
+    static final class Track {
+        int count = -1;         // -1 until a keyframe has been seen
+        long tick = -1;
+        int[] qx = new int[0];
+        int[] qy = new int[0];
+        int[] qvx = new int[0];
+        int[] qvy = new int[0];
+
+        void ensureCapacity( int n ) {
+            if ( qx.length < n ) {
+                qx = new int[n];
+                qy = new int[n];
+                qvx = new int[n];
+                qvy = new int[n];
+            }
+        }
+    }
+
+    private final double xScale;    // quantized units per unit of location
+    private final double yScale;
+
+    /**
+     * TrajectoryCodec constructor
+     * @param width width of the world
+     * @param height height of the world
+     */
+    TrajectoryCodec( int width, int height ) {
+        this.xScale = (1 << POSITION_BITS) / (double) Math.max( 1, width );
+        this.yScale = (1 << POSITION_BITS) / (double) Math.max( 1, height );
+    }
+
+    /**
+     * maxBytes() - the most bytes encode() can write for a flock
+     * @param count number of Boids in the flock
+     * @return the size of buffer encode() needs
+     */
+    static int maxBytes( int count ) { return 4 * 5 * count; }
+
+    /**
+     * canDelta() - whether a flock can be encoded as a delta against its track
+     * @param track the flock's track
+     * @param count number of Boids in the flock now
+     * @param previousTick the tick encoded just before this one
+     * @return true if the track holds the same Boids at the previous tick
+     */
+    static boolean canDelta( Track track, int count, long previousTick ) {
+        return track.count == count && track.tick == previousTick;
+    }
+
+    /*****************************************************************************************************************
+     * Encodes a flock as a keyframe or as a delta against its track, and updates the track
+     *
+     * @param s the flock
+     * @param tick the tick it is at
+     * @param key true for a keyframe; otherwise canDelta() must be true
+     * @param track the flock's track
+     * @param out buffer of at least maxBytes( s.count ) bytes
+     * @return the number of bytes written
+     */
+    int encode( FlockSnapshot s, long tick, boolean key, Track track, byte[] out ) {
+        int n = s.count;
+        track.ensureCapacity( n );
+        int[] qx = track.qx;
+        int[] qy = track.qy;
+        int[] qvx = track.qvx;
+        int[] qvy = track.qvy;
+        int p = 0;
+
+        for( int i=0; i<n; i++ ) {
+            int vx = (int) Math.round( s.vx[i] * xScale );
+            int vy = (int) Math.round( s.vy[i] * yScale );
+            int x = (int) Math.round( s.x[i] * xScale );
+            int y = (int) Math.round( s.y[i] * yScale );
+            if ( key ) {
+                p = putVarint( out, p, vx );
+                p = putVarint( out, p, vy );
+                p = putVarint( out, p, x );
+                p = putVarint( out, p, y );
+            } else {
+                p = putVarint( out, p, vx - qvx[i] );
+                p = putVarint( out, p, vy - qvy[i] );
+                p = putVarint( out, p, x - (qx[i] + vx) );
+                p = putVarint( out, p, y - (qy[i] + vy) );
+            }
+            qvx[i] = vx;
+            qvy[i] = vy;
+            qx[i] = x;
+            qy[i] = y;
+        }
+        track.count = n;
+        track.tick = tick;
+        return p;
+    }
+
+    /*****************************************************************************************************************
+     * Decodes a flock written by encode() from the buffer's position on, updating its track
+     *
+     * @param in the encoded bytes
+     * @param count number of Boids encoded
+     * @param tick the tick they are at
+     * @param key true if they are a keyframe
+     * @param track the flock's track
+     * @param s where to put the locations and velocities, or null just to update the track
+     * @return false if a delta does not fit the track (the data is corrupt)
+     */
+    boolean decode( ByteBuffer in, int count, long tick, boolean key, Track track, FlockSnapshot s ) {
+        if ( !key && track.count != count ) {
+            return false;
+        }
+        track.ensureCapacity( count );
+        int[] qx = track.qx;
+        int[] qy = track.qy;
+        int[] qvx = track.qvx;
+        int[] qvy = track.qvy;
+
+        for( int i=0; i<count; i++ ) {
+            if ( key ) {
+                qvx[i] = getVarint( in );
+                qvy[i] = getVarint( in );
+                qx[i] = getVarint( in );
+                qy[i] = getVarint( in );
+            } else {
+                qvx[i] += getVarint( in );
+                qvy[i] += getVarint( in );
+                qx[i] += qvx[i] + getVarint( in );
+                qy[i] += qvy[i] + getVarint( in );
+            }
+        }
+        track.count = count;
+        track.tick = tick;
+
+        if ( s != null ) {
+            s.count = count;
+            s.ensureCapacity( count );
+            for( int i=0; i<count; i++ ) {
+                s.x[i] = qx[i] / xScale;
+                s.y[i] = qy[i] / yScale;
+                s.vx[i] = qvx[i] / xScale;
+                s.vy[i] = qvy[i] / yScale;
+            }
+        }
+        return true;
+    }
+
+    // private helper functions
+
+    private static int putVarint( byte[] out, int p, int value ) {
+        int v = (value << 1) ^ (value >> 31);     // zigzag: 0, -1, 1, -2, ... become 0, 1, 2, 3, ...
+        while ( (v & ~0x7F) != 0 ) {
+            out[p++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[p++] = (byte) v;
+        return p;
+    }
+
+    private static int getVarint( ByteBuffer in ) {
+        int v = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get();
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ( (b & 0x80) != 0 && shift < 35 );
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -0,0 +1,462 @@
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*******************************************************************************************************************
+ * TrajectoryReader reads any tick of a file written by TrajectoryRecorder without reading the rest of the file.
+ *
+ * The file is never loaded onto the heap: it is read through a window of at most WINDOW_BYTES mapped from the
+ * file, moved as reads go elsewhere, and the tick index written at the end of the file is itself mapped and
+ * searched in place.  Opening even a very large recording therefore costs a few small reads, and reading a tick
+ * costs a lookup in the index plus decoding from the keyframe at or before it, whichever direction playback
+ * goes.  Reading the ticks of a compressed recording in order decodes each delta once, carrying on from the tick
+ * read before.
+ *
+ * A file without a trailer (its recorder was never closed) is scanned once from the start to rebuild the index;
+ * a tick left half written at the end is ignored.
+ */
+class TrajectoryReader implements AutoCloseable {
+
+    private static final long WINDOW_BYTES = 64L << 20;   // most of the file mapped at any one time
+
+    /**
+     * Description is what a FLOCK record says about a flock
+     */
+    private static final class Description {
+        final String name;
+        final Color color;
+        final int size;
+
+        Description( String name, Color color, int size ) {
+            this.name = name;
+            this.color = color;
+            this.size = size;
+        }
+    }
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int width;
+    private final int height;
+    private final int keyframeInterval;
+    private final boolean complete;         // false if the index was rebuilt by scanning
+    private long dataEnd;                   // offset just past the last tick
+
+    private LongBuffer index;               // per indexed tick: tick, then file offset of its first record
+    private int entries;
+    private long lastTick = -1;
+
+    private MappedByteBuffer window;
+    private long windowStart = 0;           // file offset of the start of window
+
+    private final HashMap<Integer, Description> descriptions = new HashMap<>();
+
+    // decoding of compressed recordings
+    private final TrajectoryCodec codec;
+    private final HashMap<Integer, TrajectoryCodec.Track> tracks = new HashMap<>();
+    private int decodedEntry = -1;          // keyframe the tracks were decoded from, -1 if none
+    private long decodedTick = -1;          // last tick decoded
+    private long decodedEnd = 0;            // offset just past it
+
+    /**
+     * TrajectoryReader constructor; opens the file and finds (or rebuilds) its tick index
+     * @param file file written by a TrajectoryRecorder
+     * @throws IOException if the file cannot be read or is not a trajectory file
+     */
+    TrajectoryReader( Path file ) throws IOException {
+        channel = FileChannel.open( file, StandardOpenOption.READ );
+        try {
+            fileSize = channel.size();
+            if ( fileSize < TrajectoryRecorder.HEADER_BYTES ) {
+                throw new IOException( "not a trajectory file: " + file );
+            }
+            ByteBuffer b = at( 0, TrajectoryRecorder.HEADER_BYTES );
+            if ( b.getLong() != TrajectoryRecorder.MAGIC ) {
+                throw new IOException( "not a trajectory file: " + file );
+            }
+            int version = b.getInt();
+            if ( version != TrajectoryRecorder.VERSION ) {
+                throw new IOException( "unsupported trajectory file version " + version + ": " + file );
+            }
+            width = b.getInt();
+            height = b.getInt();
+            keyframeInterval = b.getInt();
+            codec = new TrajectoryCodec( width, height );
+
+            complete = mapIndex();
+            if ( !complete ) {
+                scanIndex();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int getWidth() { return width; }
+    int getHeight() { return height; }
+
+    /**
+     * getKeyframeInterval() - ticks from one keyframe to the next in a compressed recording
+     * @return the interval, or 0 if the recording is raw
+     */
+    int getKeyframeInterval() { return keyframeInterval; }
+
+    /**
+     * isComplete() - whether the recording was closed properly (if not, its index was rebuilt when opened)
+     * @return true if the file has its trailer
+     */
+    boolean isComplete() { return complete; }
+
+    /**
+     * getFirstTick() - the first tick of the recording
+     * @return the first tick, or -1 if none was recorded
+     */
+    long getFirstTick() { return (entries > 0) ? getKeyframeTick( 0 ) : -1; }
+
+    /**
+     * getLastTick() - the last tick of the recording
+     * @return the last tick, or -1 if none was recorded
+     */
+    long getLastTick() { return lastTick; }
+
+    /**
+     * getKeyframeCount() - number of keyframes (entries of the index) in the recording; every tick of a raw
+     * recording is a keyframe
+     * @return the number of keyframes
+     */
+    int getKeyframeCount() { return entries; }
+
+    /**
+     * getKeyframeTick() - the tick of one keyframe; keyframes are in increasing order of tick
+     * @param entry which keyframe, from 0 to getKeyframeCount() - 1
+     * @return its tick
+     */
+    long getKeyframeTick( int entry ) { return index.get( 2 * entry ); }
+
+    /*****************************************************************************************************************
+     * Fills a snapshot with the flocks as recorded at the given tick.  The Boids' images are not recorded, so
+     * every Boid is drawn as a circle of its flock's color.
+     *
+     * @param tick the tick to read
+     * @param frame snapshot to fill in; its sequence is set to the tick
+     * @return false if the tick is not in the recording (frame is then unchanged)
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    boolean read( long tick, WorldSnapshot frame ) throws IOException {
+        int entry = floorEntry( tick );
+        if ( entry < 0 ) {
+            return false;
+        }
+
+        // decode forward from the keyframe, or from the tick read last if it is on the way
+
+        long offset = index.get( 2 * entry + 1 );
+        if ( entry == decodedEntry && tick > decodedTick ) {
+            offset = decodedEnd;
+        }
+        decodedEntry = -1;
+
+        while ( offset + 4 <= dataEnd ) {
+            int type = at( offset, 4 ).getInt();
+            if ( type == TrajectoryRecorder.FLOCK ) {
+                offset = readDescription( offset );
+            } else if ( type == TrajectoryRecorder.TICK || type == TrajectoryRecorder.DELTA_TICK ) {
+                long t = at( offset + 4, 8 ).getLong();
+                if ( t > tick ) {
+                    return false;
+                }
+                offset = readTick( offset, (t == tick) ? frame : null );
+                decodedEntry = entry;
+                decodedTick = t;
+                decodedEnd = offset;
+                if ( t == tick ) {
+                    return true;
+                }
+            } else {
+                throw new IOException( "corrupt trajectory file: record type " + type + " at offset " + offset );
+            }
+        }
+        return false;
+    }
+
+    /**
+     * close() - closes the file; the reader cannot be used afterwards
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        window = null;
+        index = null;
+        channel.close();
+    }
+
+    // private helper functions
+
+    /**
+     * Returns the window positioned at the given file offset with at least n bytes after it, moving the window
+     * if it does not hold them.  A window is moved to end just past the bytes needed when reading earlier in the
+     * file, so playing backward does not move it on every tick.
+     */
+    private ByteBuffer at( long offset, long n ) throws IOException {
+        if ( window == null || offset < windowStart || offset + n > windowStart + window.capacity() ) {
+            if ( offset < 0 || offset + n > fileSize ) {
+                throw new IOException( "corrupt trajectory file: " + n + " bytes at offset " + offset +
+                                       " run past its end" );
+            }
+            long size = Math.min( Math.max( WINDOW_BYTES, n ), fileSize );
+            if ( size > Integer.MAX_VALUE ) {
+                throw new IOException( "trajectory record of " + n + " bytes is too large to map" );
+            }
+            long start = ( window != null && offset < windowStart ) ? offset + n - size : offset;
+            start = Math.max( 0, Math.min( start, fileSize - size ) );
+            window = channel.map( FileChannel.MapMode.READ_ONLY, start, size );
+            window.order( ByteOrder.LITTLE_ENDIAN );
+            windowStart = start;
+        }
+        window.position( (int) (offset - windowStart) );
+        return window;
+    }
+
+    /**
+     * Maps the index written at the end of the file
+     * @return false if the file has no (valid) trailer
+     */
+    private boolean mapIndex() throws IOException {
+        if ( fileSize < TrajectoryRecorder.HEADER_BYTES + TrajectoryRecorder.TRAILER_BYTES ) {
+            return false;
+        }
+        long trailer = fileSize - TrajectoryRecorder.TRAILER_BYTES;
+        ByteBuffer b = at( trailer, TrajectoryRecorder.TRAILER_BYTES );
+        long indexOffset = b.getLong();
+        if ( b.getLong() != TrajectoryRecorder.END_MAGIC ||
+             indexOffset < TrajectoryRecorder.HEADER_BYTES || indexOffset + 8 > trailer ) {
+            return false;
+        }
+        b = at( indexOffset, 8 );
+        int n = (b.getInt() == TrajectoryRecorder.INDEX) ? b.getInt() : -1;
+        if ( n < 0 || indexOffset + 8 + 16L * n != trailer ) {
+            return false;
+        }
+        entries = n;
+        index = channel.map( FileChannel.MapMode.READ_ONLY, indexOffset + 8, 16L * n )
+                       .order( ByteOrder.LITTLE_ENDIAN ).asLongBuffer();
+        dataEnd = TrajectoryRecorder.HEADER_BYTES;
+        if ( n > 0 ) {
+            // the ticks after the last keyframe, up to the zeros the recorder leaves before the index
+            dataEnd = scan( index.get( 2 * n - 1 ), indexOffset, false );
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the index of a file without a trailer by reading its records from the start, stopping at the
+     * first record that is incomplete or is not one of the tick records
+     */
+    private void scanIndex() throws IOException {
+        entries = 0;
+        index = LongBuffer.wrap( new long[2048] );
+        dataEnd = scan( TrajectoryRecorder.HEADER_BYTES, fileSize, true );
+        index.limit( 2 * entries );
+    }
+
+    /**
+     * Walks the records from offset to limit, noting the last tick and, if asked, adding each keyframe to the
+     * index; stops at the first record that is incomplete or is not a FLOCK or tick record
+     * @return the offset just past the last complete tick
+     */
+    private long scan( long offset, long limit, boolean indexing ) throws IOException {
+        long end = offset;
+        long frameStart = -1;       // first FLOCK record since the last tick, which starts the next tick
+
+        while ( offset + 4 <= limit ) {
+            int type = at( offset, 4 ).getInt();
+            long next;
+            if ( type == TrajectoryRecorder.FLOCK && offset + 20 <= limit ) {
+                next = offset + 20 + at( offset + 16, 4 ).getInt();
+                if ( frameStart < 0 ) {
+                    frameStart = offset;
+                }
+            } else if ( (type == TrajectoryRecorder.TICK || type == TrajectoryRecorder.DELTA_TICK) &&
+                        offset + 16 <= limit ) {
+                next = skipTick( offset, limit );
+                if ( next < 0 ) {
+                    break;
+                }
+                lastTick = at( offset + 4, 8 ).getLong();
+                if ( indexing && type == TrajectoryRecorder.TICK ) {
+                    if ( 2 * entries + 2 > index.capacity() ) {
+                        long[] grown = Arrays.copyOf( index.array(), 2 * index.capacity() );
+                        index = LongBuffer.wrap( grown );
+                    }
+                    index.put( 2 * entries, lastTick );
+                    index.put( 2 * entries + 1, (frameStart >= 0) ? frameStart : offset );
+                    entries++;
+                }
+                frameStart = -1;
+                end = next;
+            } else {
+                break;
+            }
+            if ( next > limit ) {
+                break;
+            }
+            offset = next;
+        }
+        return end;
+    }
+
+    /**
+     * Finds the end of the tick record at offset and the flock records that follow it
+     * @return the offset just past them, or -1 if they run past limit
+     */
+    private long skipTick( long offset, long limit ) throws IOException {
+        ByteBuffer b = at( offset + 12, 4 );
+        int flocks = b.getInt();
+        long next = offset + 16;
+        for( int f=0; f<flocks; f++ ) {
+            if ( next + 20 > limit ) {
+                return -1;
+            }
+            b = at( next, 20 );
+            int type = b.getInt();
+            if ( type == TrajectoryRecorder.BOIDS ) {
+                next += 20 + 32L * b.getInt( b.position() + 12 );
+            } else if ( type == TrajectoryRecorder.PACKED && next + 28 <= limit ) {
+                next += 28 + (long) at( next + 24, 4 ).getInt();
+            } else if ( type == TrajectoryRecorder.PACKED ) {
+                return -1;
+            } else {
+                throw new IOException( "corrupt trajectory file: missing flock at offset " + next );
+            }
+        }
+        return (next > limit) ? -1 : next;
+    }
+
+    /**
+     * Reads the FLOCK record at offset
+     * @return the offset just past it
+     */
+    private long readDescription( long offset ) throws IOException {
+        ByteBuffer b = at( offset, 20 );
+        b.getInt();
+        int id = b.getInt();
+        int rgb = b.getInt();
+        int size = b.getInt();
+        int length = b.getInt();
+        byte[] name = new byte[length];
+        at( offset + 20, length ).get( name );
+        descriptions.put( id, new Description( new String( name, StandardCharsets.UTF_8 ), new Color( rgb, true ),
+                                               size ) );
+        return offset + 20 + length;
+    }
+
+    /**
+     * Decodes the tick record at offset and the flock records after it into frame, or only into the tracks of a
+     * compressed recording if frame is null
+     * @return the offset just past them
+     */
+    private long readTick( long offset, WorldSnapshot frame ) throws IOException {
+        ByteBuffer b = at( offset, 16 );
+        b.getInt();
+        long tick = b.getLong();
+        int flocks = b.getInt();
+        if ( frame != null ) {
+            frame.setFlockCount( flocks );
+        }
+        long next = offset + 16;
+
+        for( int f=0; f<flocks; f++ ) {
+            b = at( next, 20 );
+            int type = b.getInt();
+            b.getLong();
+            int id = b.getInt();
+            int count = b.getInt();
+            long length;
+            if ( type == TrajectoryRecorder.BOIDS ) {
+                length = 20 + 32L * count;
+            } else if ( type == TrajectoryRecorder.PACKED ) {
+                b = at( next + 20, 8 );
+                boolean key = b.getInt() != 0;
+                length = 28 + (long) b.getInt();
+                TrajectoryCodec.Track track = tracks.computeIfAbsent( id, k -> new TrajectoryCodec.Track() );
+                FlockSnapshot s = (frame != null) ? frame.getFlock( f ) : null;
+                if ( !codec.decode( at( next + 28, length - 28 ), count, tick, key, track, s ) ) {
+                    throw new IOException( "corrupt trajectory file: delta for flock " + id + " at tick " + tick +
+                                           " does not follow the tick before" );
+                }
+            } else {
+                throw new IOException( "corrupt trajectory file: missing flock at offset " + next );
+            }
+
+            if ( frame != null ) {
+                Description d = descriptions.get( id );
+                if ( d == null ) {
+                    throw new IOException( "corrupt trajectory file: flock " + id + " at tick " + tick +
+                                           " was never described" );
+                }
+                FlockSnapshot s = frame.getFlock( f );
+                s.flockId = id;
+                s.name = d.name;
+                if ( type == TrajectoryRecorder.BOIDS ) {
+                    s.count = count;
+                    s.ensureCapacity( count );
+                    at( next + 20, 32L * count );
+                    getDoubles( s.x, count );
+                    getDoubles( s.y, count );
+                    getDoubles( s.vx, count );
+                    getDoubles( s.vy, count );
+                }
+                Arrays.fill( s.size, 0, count, d.size );
+                Arrays.fill( s.color, 0, count, d.color );
+                Arrays.fill( s.image, 0, count, null );
+            }
+            next += length;
+        }
+        if ( frame != null ) {
+            frame.sequence = tick;
+        }
+        return next;
+    }
+
+    private void getDoubles( double[] values, int count ) {
+        window.asDoubleBuffer().get( values, 0, count );
+        window.position( window.position() + 8 * count );
+    }
+
+    /**
+     * Finds the last keyframe at or before tick: directly if the keyframes are evenly spaced, else by a binary
+     * search of the index
+     * @return the entry of the index, or -1 if tick is before the first
+     */
+    private int floorEntry( long tick ) {
+        if ( entries == 0 || tick < getKeyframeTick( 0 ) ) {
+            return -1;
+        }
+        long guess = (tick - getKeyframeTick( 0 )) / Math.max( 1, keyframeInterval );
+        if ( guess < entries && getKeyframeTick( (int) guess ) <= tick &&
+             (guess + 1 == entries || getKeyframeTick( (int) guess + 1 ) > tick) ) {
+            return (int) guess;
+        }
+        int lo = 0;
+        int hi = entries - 1;
+        while ( lo < hi ) {
+            int mid = (lo + hi + 1) >>> 1;
+            if ( getKeyframeTick( mid ) <= tick ) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,349 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*******************************************************************************************************************
+ * TrajectoryRecorder streams the location and velocity of every Boid of every Flock, tick by tick, into a compact
+ * binary file for offline analysis (and for TrajectoryReplay).
+ *
+ * Recordings are either raw (32 bytes per Boid per tick) or compressed by a TrajectoryCodec (a few bytes per Boid
+ * per tick), with a keyframe every so many ticks and deltas against the tick before in between.
+ *
+ * The simulation thread only copies the flocks into one of a few reusable WorldSnapshots and hands it over; a
+ * writer thread encodes it into the file through memory-mapped regions of a FileChannel, so recording costs the
+ * simulation thread a copy of the flocks per tick.  record() only waits if the writer is FRAMES ticks behind.
+ *
+ * File format (all numbers little-endian):
+ * <pre>
+ *   header      long MAGIC, int VERSION, int world width, int world height, int keyframe interval (0 if raw)
+ *   records     each starts with an int type:
+ *     FLOCK       int flock id, int RGB color, int size, int name length, name (UTF-8) - for every flock at the
+ *                 start of each keyframe, and otherwise whenever a flock's name, color, or size changes
+ *     TICK        long tick, int number of flocks; a keyframe, followed by that many BOIDS or PACKED records
+ *     DELTA_TICK  the same, but its PACKED records may be deltas against the tick before
+ *     BOIDS       long tick, int flock id, int count, then count doubles each of x, y, vx, and vy
+ *     PACKED      long tick, int flock id, int count, int 1 if a keyframe else 0, int length, then that many
+ *                 bytes from TrajectoryCodec.encode()
+ *     INDEX       int entries, then per keyframe: long tick, long file offset of its first record; written at
+ *                 the end of the file, after zeros filling the rest of the last mapped region
+ *   trailer     long file offset of the INDEX record, long END_MAGIC
+ * </pre>
+ * Every tick of a raw recording is a keyframe.  A file without a trailer (a run that did not close its recorder)
+ * can still be read from the start; see TrajectoryReader.
+ */
+class TrajectoryRecorder implements AutoCloseable {
+
+    static final long MAGIC = 0x4A52544B434F4C46L;       // "FLOCKTRJ" read as a little-endian long
+    static final long END_MAGIC = 0x444E454B434F4C46L;   // "FLOCKEND"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 24;
+    static final int TRAILER_BYTES = 16;
+
+    static final int FLOCK = 1;
+    static final int TICK = 2;
+    static final int BOIDS = 3;
+    static final int INDEX = 4;
+    static final int DELTA_TICK = 5;
+    static final int PACKED = 6;
+
+    private static final int FRAMES = 4;                  // snapshots in flight between the two threads
+    private static final long CHUNK_BYTES = 64L << 20;    // size of each mapped region of the file
+
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<WorldSnapshot> free = new ArrayBlockingQueue<>( FRAMES );
+    private final ArrayBlockingQueue<WorldSnapshot> full = new ArrayBlockingQueue<>( FRAMES + 1 );
+    private final WorldSnapshot endOfRecording = new WorldSnapshot();
+    private final Thread writer;
+    private volatile IOException failure = null;
+    private boolean closed = false;
+    private long stalls = 0;
+
+    // writer thread state
+
+    private MappedByteBuffer region;
+    private long regionStart = 0;                         // file offset of the start of region
+    private final DoubleBuffer[] doubleViews = new DoubleBuffer[8];   // views of region from byte 0..7 on, as needed
+    private long[] indexTicks = new long[1024];
+    private long[] indexOffsets = new long[1024];
+    private int indexEntries = 0;
+    private final HashMap<Integer, String> described = new HashMap<>();
+
+    // compression, if any
+    private final int keyframeInterval;
+    private final TrajectoryCodec codec;
+    private final HashMap<Integer, TrajectoryCodec.Track> tracks = new HashMap<>();
+    private byte[] packed = new byte[0];
+    private long ticksWritten = 0;
+    private long previousTick = 0;
+
+    /**
+     * TrajectoryRecorder constructor for a raw recording
+     * @param file file to record into
+     * @param width width of the world
+     * @param height height of the world
+     * @throws IOException if the file cannot be created
+     */
+    TrajectoryRecorder( Path file, int width, int height ) throws IOException {
+        this( file, width, height, 0 );
+    }
+
+    /**
+     * TrajectoryRecorder constructor; creates (or replaces) the file and starts the writer thread
+     * @param file file to record into
+     * @param width width of the world
+     * @param height height of the world
+     * @param keyframeInterval ticks from one keyframe to the next in a compressed recording, or 0 for raw
+     * @throws IOException if the file cannot be created
+     */
+    TrajectoryRecorder( Path file, int width, int height, int keyframeInterval ) throws IOException {
+        this.keyframeInterval = Math.max( 0, keyframeInterval );
+        this.codec = (keyframeInterval > 0) ? new TrajectoryCodec( width, height ) : null;
+        channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                    StandardOpenOption.READ, StandardOpenOption.WRITE );
+        for( int i=0; i<FRAMES; i++ ) {
+            free.add( new WorldSnapshot() );
+        }
+
+        ensure( HEADER_BYTES );
+        region.putLong( MAGIC ).putInt( VERSION ).putInt( width ).putInt( height ).putInt( this.keyframeInterval );
+
+        writer = new Thread( this::writeFrames, "Trajectory Writer" );
+        writer.start();
+    }
+
+    /*****************************************************************************************************************
+     * Records the state of the flocks after the given tick.  Called on the simulation thread; copies the flocks
+     * and returns, unless the writer has fallen FRAMES ticks behind.
+     *
+     * @param tick the tick just completed
+     * @param flocks the flocks of the world
+     * @throws IOException if writing an earlier tick failed
+     */
+    void record( long tick, List<Flock> flocks ) throws IOException {
+        checkFailure();
+        WorldSnapshot frame = free.poll();
+        try {
+            if ( frame == null ) {
+                stalls++;
+                frame = free.take();
+            }
+            frame.capture( flocks );
+            frame.sequence = tick;
+            full.put( frame );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "interrupted while recording tick " + tick );
+        }
+    }
+
+    /**
+     * getStalls() - number of times record() had to wait for the writer
+     * @return the number of stalls so far
+     */
+    long getStalls() { return stalls; }
+
+    /*****************************************************************************************************************
+     * Writes the remaining ticks, the tick index, and the trailer, then closes the file
+     *
+     * @throws IOException if writing failed
+     */
+    @Override
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        try {
+            full.put( endOfRecording );
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "interrupted while closing the recording" );
+        } finally {
+            region = null;
+            channel.close();
+        }
+        checkFailure();
+    }
+
+    // private helper functions
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if ( e != null ) {
+            throw new IOException( "trajectory recording failed", e );
+        }
+    }
+
+    /**
+     * Body of the writer thread: writes frames until the end of the recording
+     */
+    private void writeFrames() {
+        try {
+            while ( true ) {
+                WorldSnapshot frame = full.take();
+                if ( frame == endOfRecording ) {
+                    break;
+                }
+
+                // after a failure keep taking frames, so record() never waits on a dead writer
+
+                if ( failure == null ) {
+                    try {
+                        writeTick( frame );
+                    } catch (IOException e) {
+                        failure = e;
+                    } catch (RuntimeException e) {
+                        failure = new IOException( "cannot write tick " + frame.sequence, e );
+                    }
+                }
+                free.put( frame );
+            }
+            if ( failure == null ) {
+                finish();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new IOException( "cannot finish the recording", e );
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException( "trajectory writer interrupted" );
+        }
+    }
+
+    private void writeTick( WorldSnapshot frame ) throws IOException {
+        long tick = frame.sequence;
+        int flocks = frame.getFlockCount();
+        boolean key = (codec == null) || (ticksWritten % keyframeInterval == 0);
+
+        // a keyframe is indexed and starts with every flock's description, so a reader can start decoding there
+
+        if ( key ) {
+            if ( indexEntries == indexTicks.length ) {
+                indexTicks = Arrays.copyOf( indexTicks, 2 * indexEntries );
+                indexOffsets = Arrays.copyOf( indexOffsets, 2 * indexEntries );
+            }
+            ensure( 16 );
+            indexTicks[indexEntries] = tick;
+            indexOffsets[indexEntries] = regionStart + region.position();
+            indexEntries++;
+        }
+        for( int f=0; f<flocks; f++ ) {
+            describe( frame.getFlock( f ), key );
+        }
+
+        ensure( 16 );
+        region.putInt( key ? TICK : DELTA_TICK ).putLong( tick ).putInt( flocks );
+
+        for( int f=0; f<flocks; f++ ) {
+            FlockSnapshot s = frame.getFlock( f );
+            if ( codec != null ) {
+                writePacked( s, tick, key );
+                continue;
+            }
+            ensure( 20 + 32L * s.count );
+            region.putInt( BOIDS ).putLong( tick ).putInt( s.flockId ).putInt( s.count );
+            putDoubles( s.x, s.count );
+            putDoubles( s.y, s.count );
+            putDoubles( s.vx, s.count );
+            putDoubles( s.vy, s.count );
+        }
+        previousTick = tick;
+        ticksWritten++;
+    }
+
+    /**
+     * Writes a flock as a PACKED record: a delta if it had the same Boids last tick, else a keyframe
+     */
+    private void writePacked( FlockSnapshot s, long tick, boolean key ) throws IOException {
+        TrajectoryCodec.Track track = tracks.computeIfAbsent( s.flockId, id -> new TrajectoryCodec.Track() );
+        key |= !TrajectoryCodec.canDelta( track, s.count, previousTick );
+        if ( packed.length < TrajectoryCodec.maxBytes( s.count ) ) {
+            packed = new byte[TrajectoryCodec.maxBytes( s.count )];
+        }
+        int length = codec.encode( s, tick, key, track, packed );
+        ensure( 28 + length );
+        region.putInt( PACKED ).putLong( tick ).putInt( s.flockId ).putInt( s.count ).putInt( key ? 1 : 0 )
+              .putInt( length ).put( packed, 0, length );
+    }
+
+    /**
+     * Writes a FLOCK record if forced, or if the flock is new or its name, color, or size changed
+     */
+    private void describe( FlockSnapshot s, boolean force ) throws IOException {
+        int rgb = (s.count > 0) ? s.color[0].getRGB() : 0;
+        int size = (s.count > 0) ? s.size[0] : 0;
+        String key = rgb + "/" + size + "/" + s.name;
+        if ( !force && key.equals( described.get( s.flockId ) ) ) {
+            return;
+        }
+        described.put( s.flockId, key );
+        byte[] name = s.name.getBytes( StandardCharsets.UTF_8 );
+        ensure( 20 + name.length );
+        region.putInt( FLOCK ).putInt( s.flockId ).putInt( rgb ).putInt( size ).putInt( name.length ).put( name );
+    }
+
+    /**
+     * Bulk copies doubles into the region through a view of it made once per region and per alignment, since
+     * records do not keep doubles 8-byte aligned
+     */
+    private void putDoubles( double[] values, int count ) {
+        int p = region.position();
+        int phase = p & 7;
+        DoubleBuffer view = doubleViews[phase];
+        if ( view == null ) {
+            ByteBuffer from = region.duplicate();
+            from.position( phase );
+            view = from.slice().order( ByteOrder.LITTLE_ENDIAN ).asDoubleBuffer();
+            doubleViews[phase] = view;
+        }
+        view.position( (p - phase) >> 3 );
+        view.put( values, 0, count );
+        region.position( p + 8 * count );
+    }
+
+    /**
+     * Writes the tick index and trailer at the very end of the last mapped region, which is the end of the file.
+     * The file is not trimmed to what was written: some systems (Windows) cannot truncate a file while a region
+     * of it is mapped, and a mapping is only released once it is garbage collected.  The space left before the
+     * index reads as zeros, where readers stop looking for ticks, and is not stored on file systems with sparse
+     * files.
+     */
+    private void finish() throws IOException {
+        long bytes = 8 + 16L * indexEntries + TRAILER_BYTES;
+        ensure( bytes );
+        region.position( region.limit() - (int) bytes );
+        long indexOffset = regionStart + region.position();
+        region.putInt( INDEX ).putInt( indexEntries );
+        for( int i=0; i<indexEntries; i++ ) {
+            region.putLong( indexTicks[i] ).putLong( indexOffsets[i] );
+        }
+        region.putLong( indexOffset ).putLong( END_MAGIC );
+        region.force();
+    }
+
+    /**
+     * Makes sure the mapped region has room for n more bytes, mapping the next region of the file if not
+     */
+    private void ensure( long n ) throws IOException {
+        if ( region != null && region.remaining() >= n ) {
+            return;
+        }
+        long position = (region == null) ? 0 : regionStart + region.position();
+        region = channel.map( FileChannel.MapMode.READ_WRITE, position, Math.max( CHUNK_BYTES, n ) );
+        region.order( ByteOrder.LITTLE_ENDIAN );
+        regionStart = position;
+        Arrays.fill( doubleViews, null );
+    }
+}
@@ -0,0 +1,154 @@
+import java.awt.*;
+import java.nio.file.Paths;
+
+/*******************************************************************************************************************
+ * Plays back a recording made by TrajectoryRecorder in a DrawingPanel, drawing the recorded flocks instead of
+ * moving any:
+ * <pre>
+ *     java TrajectoryReplay file [speed]
+ * </pre>
+ * speed is in recorded ticks per second (default 10, the rate FlockingSimulation runs at); a negative speed
+ * plays backward.  While playing, the spacebar pauses and resumes, the up and down arrows double and halve the
+ * speed, R reverses it, holding the left or right arrow scrubs a tick at a time, Home and End jump to the ends,
+ * and a left click seeks to that fraction of the recording.  A right click quits.
+ *
+ * Only the tick on screen is read from the file (see TrajectoryReader), so a recording of any length starts
+ * playing at once, and seeking anywhere in it costs at most decoding from the keyframe before.
+ */
+class TrajectoryReplay {
+
+    private final Color BACKGROUND_COLOR = Color.WHITE;
+    private final double INPUT_RATE = 60.0;    // how often keys are read and playback advances
+    private final double FRAME_RATE = 60.0;    // target frames per second
+    private final double MIN_SPEED = 0.25;     // slowest playback, in recorded ticks per second
+    private final double MAX_SPEED = 10000.0;  // fastest playback
+    private final String TITLE = "Trajectory Replay - Spacebar to pause/resume, Up/Down for speed, " +
+        "R to reverse, Left/Right to scrub, Left Click to seek, Right Click to quit - ";
+
+    private final TrajectoryReader reader;
+    private DrawingPanel panel;
+    private double speed;
+    private boolean pause = false;
+    private double cursor;            // tick being played, between the first and last recorded
+    private final WorldSnapshot frame = new WorldSnapshot();
+    private long shown = -1;          // tick drawn last
+
+    /**
+     * TrajectoryReplay constructor
+     * @param reader the recording to play
+     * @param speed recorded ticks per second, negative to play backward
+     */
+    TrajectoryReplay(TrajectoryReader reader, double speed) {
+        this.reader = reader;
+        this.speed = speed;
+        this.cursor = (speed < 0) ? reader.getLastTick() : reader.getFirstTick();
+    }
+
+    /***************************************************************************************************************
+     * Opens a DrawingPanel the size of the recorded world and plays the recording until a right click
+     * @throws Exception if the recording cannot be read
+     */
+    void activate() throws Exception {
+        panel = new DrawingPanel(reader.getWidth(), reader.getHeight());
+        panel.setActiveRendering(true);
+        panel.setWindowTitle(TITLE);
+        panel.setBackground(BACKGROUND_COLOR);
+
+        GameLoop loop = new GameLoop(INPUT_RATE, FRAME_RATE);
+        loop.run(new GameLoop.Callbacks() {
+
+            @Override
+            public boolean isRunning() {
+                return !panel.mouseClickHasOccurred(DrawingPanel.RIGHT_BUTTON);
+            }
+
+            @Override
+            public void tick() {
+                handleInput();
+                if (!pause) {
+                    cursor += speed / INPUT_RATE;
+                }
+                long first = reader.getFirstTick();
+                long last = reader.getLastTick();
+                if (cursor < first || cursor > last) {   // stop at either end
+                    cursor = Math.max(first, Math.min(cursor, last));
+                    pause = true;
+                }
+            }
+
+            @Override
+            public void render() throws Exception {
+                long tick = (long) cursor;
+                if (tick != shown && reader.read(tick, frame)) {   // a tick missing from the recording is skipped
+                    shown = tick;
+                    panel.setBackground(BACKGROUND_COLOR);  // clear the window
+                    frame.draw(panel.getGraphics());
+                    panel.copyGraphicsToScreen();
+                }
+                panel.setWindowTitle(TITLE + String.format("tick %d, %s%.2f ticks/s",
+                    frame.sequence, pause ? "paused, " : "", speed));
+            }
+        });
+
+        panel.closeWindow();
+    }
+
+    /**
+     * handleInput() - applies the keys hit and clicks made since the last tick
+     */
+    private void handleInput() {
+        if (panel.keyHasBeenHit(DrawingPanel.SPACE_KEY)) {
+            pause = !pause;
+        }
+        if (panel.keyHasBeenHit(DrawingPanel.UP_ARROW_KEY)) {
+            speed = Math.copySign(Math.min(MAX_SPEED, Math.abs(speed) * 2.0), speed);
+        }
+        if (panel.keyHasBeenHit(DrawingPanel.DOWN_ARROW_KEY)) {
+            speed = Math.copySign(Math.max(MIN_SPEED, Math.abs(speed) / 2.0), speed);
+        }
+        if (panel.keyHasBeenHit((int) 'R')) {
+            speed = -speed;
+            pause = false;
+        }
+
+        // scrubbing moves a whole tick per input tick, and pauses so the scrubbed tick stays on screen
+
+        if (panel.isKeyDown(DrawingPanel.LEFT_ARROW_KEY)) {
+            cursor = Math.floor(cursor) - 1;
+            pause = true;
+        }
+        if (panel.isKeyDown(DrawingPanel.RIGHT_ARROW_KEY)) {
+            cursor = Math.floor(cursor) + 1;
+            pause = true;
+        }
+        if (panel.keyHasBeenHit(DrawingPanel.HOME_KEY)) {
+            cursor = reader.getFirstTick();
+        }
+        if (panel.keyHasBeenHit(DrawingPanel.END_KEY)) {
+            cursor = reader.getLastTick();
+        }
+        if (panel.mouseClickHasOccurred(DrawingPanel.LEFT_BUTTON)) {
+            double fraction = panel.getMouseClickX(DrawingPanel.LEFT_BUTTON) / (double) reader.getWidth();
+            cursor = Math.floor(reader.getFirstTick() + fraction * (reader.getLastTick() - reader.getFirstTick() + 1));
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: java TrajectoryReplay file [speed]");
+            System.exit(2);
+        }
+        try (TrajectoryReader reader = new TrajectoryReader(Paths.get(args[0]))) {
+            double speed = (args.length > 1) ? Double.parseDouble(args[1]) : 10.0;
+            if (!reader.isComplete()) {
+                System.out.println("TrajectoryReplay: " + args[0] + " was not closed; playing ticks " +
+                    reader.getFirstTick() + " to " + reader.getLastTick());
+            }
+            new TrajectoryReplay(reader, speed).activate();
+
+        } catch (Exception e) { // handle any exceptions that might occur
+            System.out.println("TrajectoryReplay Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
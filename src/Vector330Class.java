@@ -216,6 +216,35 @@ public class Vector330Class {
         this.y = (double) y;
     }
 
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * set( double, double ) - sets both components of this vector
+     *
+     * @param x new value of x component as a double
+     * @param y new value of y component as a double
+     * @return this vector, so calls can be chained
+     */
+    public Vector330Class set(double x, double y) {
+        this.x = x;
+        this.y = y;
+        return this;
+    }
+
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * set( Vector330Class ) - copies both components of the vector passed in into this vector
+     *
+     * @param v vector to copy
+     * @return this vector, so calls can be chained
+     */
+    public Vector330Class set(Vector330Class v) {
+        this.x = v.x;
+        this.y = v.y;
+        return this;
+    }
+
 /////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     // Vector Arithematic Methods
@@ -268,6 +297,35 @@ public class Vector330Class {
         return new Vector330Class(this.x - v.x, this.y - v.y);
     }
 
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * subtractInto() - subtracts passed in vector from this vector, storing the difference in result rather than
+     *          creating a new vector (result may be this vector or v)
+     *
+     * @param v other vector passed in
+     * @param result vector to receive the difference
+     * @return result, holding this vector minus the other vector passed in
+     */
+    public Vector330Class subtractInto(Vector330Class v, Vector330Class result) {
+        result.x = this.x - v.x;
+        result.y = this.y - v.y;
+        return result;
+    }
+
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * distance() - computes the distance between this vector and the one passed in without creating a new vector;
+     *          same value as subtract( v ).magnitude()
+     *
+     * @param v other vector passed in
+     * @return magnitude of the difference of the two vectors
+     */
+    public double distance(Vector330Class v) {
+        return Math.sqrt(Math.pow(this.x - v.x, 2.0) + Math.pow(this.y - v.y, 2.0));
+    }
+
 /////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
@@ -292,6 +350,21 @@ public class Vector330Class {
         return new Vector330Class((s * this.x), (s * this.y));
     }
 
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * scaleInPlace() - does a scalar-vector multiplication of this vector with double value passed in, changing
+     *          this vector rather than creating a new one
+     *
+     * @param s value to scale the vector by
+     * @return this vector, now scaled
+     */
+    public Vector330Class scaleInPlace(double s) {
+        this.x = s * this.x;
+        this.y = s * this.y;
+        return this;
+    }
+
 /////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
@@ -330,6 +403,22 @@ public class Vector330Class {
         }
     }
 
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * normalizeInPlace() - normalizes this vector to length one rather than creating a new vector
+     *
+     * @return this vector, now normalized, or set to the zero vector if it was close to zero in magnitude
+     */
+    public Vector330Class normalizeInPlace() {
+        double mag = this.magnitude();
+        if (mag > EPS) {            // protect against divide by zero
+            return this.scaleInPlace(1.0 / mag);
+        } else {
+            return this.set(0.0, 0.0);
+        }
+    }
+
 /////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
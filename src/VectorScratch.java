@@ -0,0 +1,67 @@
+import java.util.Arrays;
+
+/*******************************************************************************************
+ * VectorScratch hands out temporary Vector330Class objects so the per-tick code can use
+ * the in-place vector operations without creating garbage.  Each thread has its own
+ * scratch, used like a stack:
+ *
+ * <pre>
+ *     VectorScratch scratch = VectorScratch.current();
+ *     int mark = scratch.mark();
+ *     Vector330Class temp = scratch.take();
+ *     ...
+ *     scratch.release( mark );   // every vector taken since mark may now be reused
+ * </pre>
+ */
+final class VectorScratch {
+
+    private static final ThreadLocal<VectorScratch> SCRATCH = ThreadLocal.withInitial( VectorScratch::new );
+
+    private Vector330Class[] vectors = new Vector330Class[0];
+    private int top = 0;
+
+    private VectorScratch() {
+    }
+
+    /**
+     * current() - returns the scratch belonging to the calling thread
+     *
+     * @return this thread's VectorScratch
+     */
+    static VectorScratch current() {
+        return SCRATCH.get();
+    }
+
+    /**
+     * mark() - remembers the current top of the scratch stack
+     *
+     * @return a mark to pass to release()
+     */
+    int mark() {
+        return top;
+    }
+
+    /**
+     * take() - returns a scratch vector with unspecified contents; it stays reserved until released
+     *
+     * @return a scratch vector
+     */
+    Vector330Class take() {
+        if ( top == vectors.length ) {
+            vectors = Arrays.copyOf( vectors, Math.max( 8, 2 * vectors.length ) );
+            for( int i=top; i<vectors.length; i++ ) {
+                vectors[i] = new Vector330Class();
+            }
+        }
+        return vectors[top++];
+    }
+
+    /**
+     * release() - returns every vector taken since the mark to the scratch
+     *
+     * @param mark value returned by an earlier call to mark()
+     */
+    void release( int mark ) {
+        top = mark;
+    }
+}
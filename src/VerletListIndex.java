@@ -0,0 +1,184 @@
+/*******************************************************************************************
+ * VerletListIndex keeps a list of the candidate neighbors of each Boid from one tick to the
+ * next instead of searching for them every tick.  The lists are built with a SpatialGrid
+ * out to the largest flocking radius plus a skin; while no Boid has moved more than half
+ * the skin since then, two Boids within the flocking radius now were within the radius
+ * plus the skin when the lists were built, so the lists still hold every neighbor and a
+ * tick's build() only checks how far the Boids have moved.  Once any Boid has moved
+ * further, the lists are rebuilt.
+ *
+ * Boids move at most their speed each tick, so with a skin of a few speeds most ticks skip
+ * the neighbor search entirely; the cost is longer candidate lists for the exact distance
+ * test.  As with any NeighborIndex the lists are in ascending order, so flocking results
+ * are identical to the other indexes.
+ *
+ * Points that are not Boids (disruptions), and radii beyond the lists, are looked up in
+ * the grid, which prepareWideQueries() rebuilds over the current locations when the lists
+ * were reused; queries never build it themselves, so they are safe on the step pool.
+ */
+class VerletListIndex implements NeighborIndex {
+
+    static final double DEFAULT_SKIN = 20.0;
+
+    // padding applied to the list radius so floating point rounding can never drop a neighbor
+    private static final double RADIUS_PAD = 1.0E-9;
+
+    private final double skin;
+    private final SpatialGrid grid = new SpatialGrid();
+    private boolean gridCurrent = false;     // grid was built over the current locations
+
+    private double[] x;
+    private double[] y;
+    private int count = 0;
+    private double cellSize = 0.0;           // radius the lists were built for, without the skin
+    private double periodX = 0.0;
+    private double periodY = 0.0;
+    private boolean periodChanged = true;
+
+    private double[] refX = new double[0];   // locations when the lists were built
+    private double[] refY = new double[0];
+    private int[] listStart = new int[1];    // listStart[i] .. listStart[i+1]-1 index into lists
+    private int[] lists = new int[0];
+    private int[] scratch = new int[0];
+
+    private long builds = 0;
+    private long rebuilds = 0;
+
+    /**
+     * VerletListIndex constructor
+     * @param skin how much further than the largest flocking radius the lists reach
+     */
+    VerletListIndex( double skin ) {
+        this.skin = Math.max( 0.0, skin );
+    }
+
+    long getBuilds() { return builds; }
+    long getRebuilds() { return rebuilds; }
+
+    @Override
+    public void build( double[] x, double[] y, int count, double cellSize ) {
+        this.x = x;
+        this.y = y;
+        this.gridCurrent = false;
+        builds++;
+        if ( periodChanged || count != this.count || cellSize != this.cellSize || movedTooFar() ) {
+            this.count = count;
+            this.cellSize = cellSize;
+            this.periodChanged = false;
+            rebuild();
+        }
+    }
+
+    @Override
+    public void setPeriod( double width, double height ) {
+        double px = (width > 0.0 && height > 0.0) ? width : 0.0;
+        double py = (width > 0.0 && height > 0.0) ? height : 0.0;
+        if ( px != periodX || py != periodY ) {
+            periodX = px;
+            periodY = py;
+            periodChanged = true;
+        }
+    }
+
+    @Override
+    public void prepareWideQueries() {
+        if ( !gridCurrent ) {
+            grid.setPeriod( periodX, periodY );
+            grid.build( x, y, count, cellSize + skin );
+            gridCurrent = true;
+        }
+    }
+
+    @Override
+    public int queryNeighbors( int index, double radius, int[] result ) {
+        if ( radius > cellSize ) {      // further than the lists reach
+            return currentGrid().queryNeighbors( index, radius, result );
+        }
+        int from = listStart[index];
+        int n = listStart[index + 1] - from;
+        System.arraycopy( lists, from, result, 0, n );
+        return n;
+    }
+
+    @Override
+    public int queryPoint( double px, double py, double radius, int[] result ) {
+        return currentGrid().queryPoint( px, py, radius, result );
+    }
+
+    // private helper functions
+
+    /**
+     * @return true if some Boid has moved more than half the skin since the lists were built
+     */
+    private boolean movedTooFar() {
+        double limit = 0.25 * skin * skin;
+        for( int i=0; i<count; i++ ) {
+            double dx = x[i] - refX[i];
+            double dy = y[i] - refY[i];
+            if ( periodX > 0.0 ) {      // a Boid wrapping across an edge has only moved its step
+                dx -= periodX * Math.rint( dx / periodX );
+                dy -= periodY * Math.rint( dy / periodY );
+            }
+            if ( dx * dx + dy * dy > limit ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds every Boid's list from the grid, keeping the candidates within the radius plus skin
+     */
+    private void rebuild() {
+        rebuilds++;
+        double reach = cellSize + skin;
+        double limit = (reach + RADIUS_PAD) * (reach + RADIUS_PAD);
+        grid.setPeriod( periodX, periodY );
+        grid.build( x, y, count, reach );
+        gridCurrent = true;
+
+        if ( refX.length < count ) {
+            refX = new double[count];
+            refY = new double[count];
+            scratch = new int[count];
+        }
+        if ( listStart.length < count + 1 ) {
+            listStart = new int[count + 1];
+        }
+        System.arraycopy( x, 0, refX, 0, count );
+        System.arraycopy( y, 0, refY, 0, count );
+
+        int size = 0;
+        for( int i=0; i<count; i++ ) {
+            listStart[i] = size;
+            int n = grid.queryNeighbors( i, reach, scratch );
+            if ( lists.length < size + n ) {
+                lists = java.util.Arrays.copyOf( lists, Math.max( 2 * lists.length, size + n ) );
+            }
+            for( int c=0; c<n; c++ ) {
+                int j = scratch[c];
+                double dx = x[j] - x[i];
+                double dy = y[j] - y[i];
+                if ( periodX > 0.0 ) {
+                    dx -= periodX * Math.rint( dx / periodX );
+                    dy -= periodY * Math.rint( dy / periodY );
+                }
+                if ( dx * dx + dy * dy <= limit ) {
+                    lists[size++] = j;
+                }
+            }
+        }
+        listStart[count] = size;
+    }
+
+    /**
+     * @return the grid, for queries the lists cannot answer
+     * @throws IllegalStateException if prepareWideQueries() was not called since the last build()
+     */
+    private SpatialGrid currentGrid() {
+        if ( !gridCurrent ) {
+            throw new IllegalStateException( "VerletListIndex: prepareWideQueries() was not called after build()" );
+        }
+        return grid;
+    }
+}
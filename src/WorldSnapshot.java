@@ -0,0 +1,56 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/*******************************************************************************************
+ * WorldSnapshot is a copy of the drawable state of every Flock after one simulation tick.
+ * The simulation thread fills one in and publishes it through a SnapshotExchange; the
+ * render thread then draws it while the simulation goes on to the next tick.
+ */
+class WorldSnapshot {
+
+    // order in which snapshots were published; written before publishing, read by the renderer
+    volatile long sequence = -1;
+
+    private final ArrayList<FlockSnapshot> flocks = new ArrayList<>();
+    private int flockCount = 0;
+
+    /************************************************************************
+     * Copies the drawable state of the flocks into this snapshot
+     * @param source flocks to copy
+     */
+    void capture( List<Flock> source ) {
+        flockCount = source.size();
+        while ( flocks.size() < flockCount ) {
+            flocks.add( new FlockSnapshot() );
+        }
+        for( int i=0; i<flockCount; i++ ) {
+            source.get( i ).snapshot( flocks.get( i ) );
+        }
+    }
+
+    /************************************************************************
+     * Sets how many flocks the snapshot holds, for filling one in other than
+     * by capture() (e.g. from a recording); new flocks start out empty
+     * @param n number of flocks
+     */
+    void setFlockCount( int n ) {
+        while ( flocks.size() < n ) {
+            flocks.add( new FlockSnapshot() );
+        }
+        flockCount = n;
+    }
+
+    int getFlockCount() { return flockCount; }
+    FlockSnapshot getFlock( int i ) { return flocks.get( i ); }
+
+    /************************************************************************
+     * Draws every flock in the snapshot
+     * @param g where to draw
+     */
+    void draw( Graphics2D g ) {
+        for( int i=0; i<flockCount; i++ ) {
+            flocks.get( i ).draw( g );
+        }
+    }
+}